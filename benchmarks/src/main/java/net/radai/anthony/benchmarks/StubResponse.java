@@ -0,0 +1,145 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.benchmarks;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import org.asynchttpclient.Response;
+import org.asynchttpclient.cookie.Cookie;
+import org.asynchttpclient.uri.Uri;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * a canned 200 response, so parsing can be measured without any network
+ */
+public class StubResponse implements Response {
+    private final byte[] body;
+
+    public StubResponse(String body) {
+        this.body = body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int getStatusCode() {
+        return 200;
+    }
+
+    @Override
+    public String getStatusText() {
+        return "OK";
+    }
+
+    @Override
+    public byte[] getResponseBodyAsBytes() {
+        return getResponseBodyAsByteBuffer().array();
+    }
+
+    @Override
+    public ByteBuffer getResponseBodyAsByteBuffer() {
+        //copied on every call, like the real thing (which gathers the received body parts into a new array)
+        return ByteBuffer.wrap(body.clone());
+    }
+
+    @Override
+    public InputStream getResponseBodyAsStream() {
+        return new ByteArrayInputStream(getResponseBodyAsBytes());
+    }
+
+    @Override
+    public String getResponseBody(Charset charset) {
+        //decoded on every call, like the real thing
+        return new String(body, charset);
+    }
+
+    @Override
+    public String getResponseBody() {
+        return getResponseBody(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Uri getUri() {
+        return null;
+    }
+
+    @Override
+    public String getContentType() {
+        return "text/html";
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return null;
+    }
+
+    @Override
+    public List<String> getHeaders(String name) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return new DefaultHttpHeaders();
+    }
+
+    @Override
+    public boolean isRedirected() {
+        return false;
+    }
+
+    @Override
+    public List<Cookie> getCookies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean hasResponseStatus() {
+        return true;
+    }
+
+    @Override
+    public boolean hasResponseHeaders() {
+        return false;
+    }
+
+    @Override
+    public boolean hasResponseBody() {
+        return body.length > 0;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return null;
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "200 (" + body.length + " bytes)";
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.dns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * what the godaddy updater does with a zone - (de)serializing it and picking out the records it manages
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZoneBenchmark {
+    /**
+     * a home domain, a busy one, and a big one
+     */
+    @Param({"10", "1000", "10000"})
+    public int records;
+    private List<GoDaddyDnsUpdater.Record> zone;
+    private List<GoDaddyDnsUpdater.Record> roots;
+    private byte[] json;
+
+    @Setup
+    public void setup() throws Exception {
+        zone = new ArrayList<>(records);
+        zone.add(GoDaddyDnsUpdater.Record.A("@", "203.0.113.77", 3600));
+        zone.add(GoDaddyDnsUpdater.Record.A("*", "203.0.113.77", 3600));
+        zone.add(GoDaddyDnsUpdater.Record.AAAA("@", "2001:db8:0:0:0:0:0:77", 3600));
+        zone.add(GoDaddyDnsUpdater.Record.AAAA("*", "2001:db8:0:0:0:0:0:77", 3600));
+        for (int i = zone.size(); i < records; i++) {
+            GoDaddyDnsUpdater.Record record = new GoDaddyDnsUpdater.Record();
+            record.name = "host" + i;
+            record.ttl = 600 + i % 7 * 600;
+            switch (i % 6) {
+                case 0:
+                    record.type = "A";
+                    record.data = "10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255);
+                    break;
+                case 1:
+                    record.type = "AAAA";
+                    record.data = "2001:db8::" + Integer.toHexString(i);
+                    break;
+                case 2:
+                    record.type = "CNAME";
+                    record.data = "host" + (i - 2) + ".what.ever";
+                    break;
+                case 3:
+                    record.type = "MX";
+                    record.name = "@";
+                    record.data = "mx" + i + ".mail.what.ever";
+                    record.priority = i % 50;
+                    break;
+                case 4:
+                    record.type = "TXT";
+                    record.data = "v=spf1 include:_spf.what.ever ~all " + i;
+                    break;
+                default:
+                    record.type = "SRV";
+                    record.name = "_sip._tcp.host" + i;
+                    record.data = "sip" + i + ".what.ever";
+                    record.service = "_sip";
+                    record.protocol = "_tcp";
+                    record.port = 5060;
+                    record.weight = 10;
+                    record.priority = 20;
+            }
+            zone.add(record);
+        }
+        json = GoDaddyDnsUpdater.writeRecords(zone);
+        roots = GoDaddyDnsUpdater.filterRoots(zone, true, true);
+    }
+
+    @Benchmark
+    public List<GoDaddyDnsUpdater.Record> parse() throws Exception {
+        return GoDaddyDnsUpdater.parseRecords(new ByteArrayInputStream(json));
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return GoDaddyDnsUpdater.writeRecords(zone);
+    }
+
+    @Benchmark
+    public List<GoDaddyDnsUpdater.Record> filterRoots() {
+        return GoDaddyDnsUpdater.filterRoots(zone, true, true);
+    }
+
+    @Benchmark
+    public List<GoDaddyDnsUpdater.Record> filterNonRoots() {
+        return GoDaddyDnsUpdater.filterRoots(zone, true, false);
+    }
+
+    @Benchmark
+    public List<GoDaddyDnsUpdater.Record> normalizeRoots() throws Exception {
+        return GoDaddyDnsUpdater.normalize(roots);
+    }
+}
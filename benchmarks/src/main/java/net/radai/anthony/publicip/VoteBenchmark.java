@@ -0,0 +1,97 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.publicip;
+
+import net.radai.anthony.publicip.provider.AmazonCheckIp;
+import net.radai.anthony.publicip.provider.ICanHazIp;
+import net.radai.anthony.publicip.provider.Ipify;
+import net.radai.anthony.publicip.provider.PublicIpServiceProvider;
+import net.radai.anthony.publicip.provider.WhatIp;
+import net.radai.anthony.publicip.provider.WhatIsMyIp4;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * tallying up the votes of the ip detection services
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VoteBenchmark {
+    /**
+     * 3 is a typical cycle, 5 is every provider (after hedging)
+     */
+    @Param({"3", "5"})
+    public int voters;
+    private List<PublicIpResult> votes;
+    private Map<Inet4Address, Integer> tally;
+
+    @Setup
+    public void setup() throws Exception {
+        PublicIpServiceProvider[] providers = {
+                new Ipify(), new WhatIp(), new ICanHazIp(), new AmazonCheckIp(), new WhatIsMyIp4()
+        };
+        Inet4Address majority = (Inet4Address) InetAddress.getByName("203.0.113.77");
+        Inet4Address dissent = (Inet4Address) InetAddress.getByName("198.51.100.4");
+        Inet6Address v6 = (Inet6Address) InetAddress.getByName("2001:db8::77");
+        votes = new ArrayList<>();
+        for (int i = 0; i < voters; i++) {
+            if (i == voters - 1) {
+                //one service that failed and one that disagrees, as happens
+                votes.add(new PublicIpResult(providers[i], new IllegalStateException("timed out")));
+            } else if (i == 1) {
+                votes.add(new PublicIpResult(providers[i], new PublicIp(dissent)));
+            } else {
+                votes.add(new PublicIpResult(providers[i], new PublicIp(majority, i % 2 == 0 ? v6 : null)));
+            }
+        }
+        tally = new HashMap<>();
+        tally.put(majority, voters - 2);
+        tally.put(dissent, 1);
+    }
+
+    @Benchmark
+    public PublicIp summarize() {
+        return MajorityVoteIpFinder.summarize(votes);
+    }
+
+    @Benchmark
+    public Inet4Address findMajority() {
+        return MajorityVoteIpFinder.findMajority(tally);
+    }
+}
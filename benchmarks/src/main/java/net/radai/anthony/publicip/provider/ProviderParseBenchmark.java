@@ -0,0 +1,87 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.publicip.provider;
+
+import net.radai.anthony.benchmarks.StubResponse;
+import net.radai.anthony.publicip.PublicIp;
+import org.asynchttpclient.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * parsing the responses of the providers that scrape html for the address
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProviderParseBenchmark {
+    private final WhatIp whatIp = new WhatIp();
+    private final WhatIsMyIp4 whatIsMyIp4 = new WhatIsMyIp4();
+    private final Ipify ipify = new Ipify();
+    private Response whatIpResponse;
+    private Response whatIsMyIp4Response;
+    private Response ipifyResponse;
+
+    @Setup
+    public void setup() {
+        whatIpResponse = new StubResponse("<html>\n<head><title>whatip.me</title></head>\n<body>203.0.113.77</body>\n</html>\n");
+        //the real page is mostly markup (and ads) around a single bold address
+        StringBuilder page = new StringBuilder("<!DOCTYPE html>\n<html><head><title>What Is My IP Address</title>\n");
+        for (int i = 0; i < 40; i++) {
+            page.append("<script type=\"text/javascript\">var slot").append(i)
+                    .append(" = googletag.defineSlot('/1234567/ad_").append(i).append("', [728, 90]);</script>\n");
+        }
+        page.append("</head><body><div class=\"container\"><table><tr><td>Your IP Address is: <b>203.0.113.77</b></td></tr>");
+        for (int i = 0; i < 100; i++) {
+            page.append("<tr><td><a href=\"/article/").append(i).append("\">related article ").append(i).append("</a></td></tr>\n");
+        }
+        page.append("</table></div></body></html>\n");
+        whatIsMyIp4Response = new StubResponse(page.toString());
+        ipifyResponse = new StubResponse("203.0.113.77");
+    }
+
+    @Benchmark
+    public PublicIp whatIp() throws Exception {
+        return whatIp.parse(whatIpResponse);
+    }
+
+    @Benchmark
+    public PublicIp whatIsMyIp4() throws Exception {
+        return whatIsMyIp4.parse(whatIsMyIp4Response);
+    }
+
+    /**
+     * plain text, for comparison
+     */
+    @Benchmark
+    public PublicIp ipify() throws Exception {
+        return ipify.parse(ipifyResponse);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * a single DNS provider account, and the domains it manages
+ */
+public class AccountConfig {
+    public static final int DEFAULT_MAX_CONCURRENT_UPDATES = 2;
+    
+    private final String name;
+    
+    //godaddy configs
+    private final String godaddyKey;
+    private final String godaddySecret;
+    
+    private final int maxConcurrentUpdates;
+    private final List<String> domains;
+
+    public AccountConfig(String name, String godaddyKey, String godaddySecret, int maxConcurrentUpdates, List<String> domains) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("account name required");
+        }
+        //validate godaddy configs
+        if (godaddyKey == null || godaddyKey.isEmpty() || godaddySecret == null || godaddySecret.isEmpty()) {
+            throw new IllegalArgumentException("account " + name + " is missing godaddy credentials");
+        }
+        if (maxConcurrentUpdates < 1) {
+            throw new IllegalArgumentException("account " + name + " must allow at least 1 concurrent update");
+        }
+        if (domains == null || domains.isEmpty()) {
+            throw new IllegalArgumentException("account " + name + " has no domains");
+        }
+        for (String domain : domains) {
+            if (domain == null || domain.isEmpty()) {
+                throw new IllegalArgumentException("account " + name + " has an empty domain");
+            }
+        }
+        this.name = name;
+        this.godaddyKey = godaddyKey;
+        this.godaddySecret = godaddySecret;
+        this.maxConcurrentUpdates = maxConcurrentUpdates;
+        this.domains = Collections.unmodifiableList(new ArrayList<>(domains));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getGodaddyKey() {
+        return godaddyKey;
+    }
+
+    public String getGodaddySecret() {
+        return godaddySecret;
+    }
+
+    public int getMaxConcurrentUpdates() {
+        return maxConcurrentUpdates;
+    }
+
+    public List<String> getDomains() {
+        return domains;
+    }
+}
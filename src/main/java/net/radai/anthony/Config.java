@@ -16,42 +16,119 @@
 
 package net.radai.anthony;
 
+import net.radai.anthony.dns.PropagationVerifier;
+import net.radai.anthony.publicip.MajorityVoteIpFinder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.StringJoiner;
 
 public class Config {
+    public static final long DEFAULT_LOCAL_CHECK_INTERVAL_MS = 5000;
+    public static final int DEFAULT_UPDATE_THREADS = 4;
+    /**
+     * name of the account configured by the top level godaddyKey/godaddySecret/domain(s) properties
+     */
+    public static final String DEFAULT_ACCOUNT = "default";
+    /**
+     * metrics are only served locally unless configured otherwise
+     */
+    public static final String DEFAULT_METRICS_HOST = "127.0.0.1";
+    
     //general configs
     private final long pollIntervalMs; //in millis
-    private final String domain;
+    private final long ipDetectionBudgetMs; //in millis
+    private final long localCheckIntervalMs; //in millis, 0 to disable
+    private final boolean dnsIpCheck; //try a cheap DNS query before asking http services
+    private final int updateThreads; //pool shared by DNS updates and notifications
+    private final boolean virtualThreads; //run updates and blocking calls on virtual threads instead (java 21+)
+    private final HttpConfig http;
+    private final ZoneCacheConfig zoneCache;
+    private final FlapDampingConfig flapDamping;
+    private final long propagationTimeoutMs; //in millis, 0 to not query the authoritative name servers at all
+    private final String stateFile; //null to not keep any state across restarts
     //private final List<String> dnsServers;
     
-    //godaddy configs
-    private final String godaddyKey;
-    private final String godaddySecret;
+    private final List<AccountConfig> accounts;
     
     //mailgun configs
     private final String notificationDomain;
     private final String notificationFrom;
     private final String notificationTo;
     private final String mailgunApiKey;
+    private final long notificationWindowMs; //in millis, how long notifications are held so they go out together
+    private final int metricsPort; //0 to not serve metrics
+    private final String metricsHost; //address to serve metrics on
 
     public Config(
             long pollIntervalMs,
-            String domain,
+            long ipDetectionBudgetMs,
+            long localCheckIntervalMs,
+            boolean dnsIpCheck,
+            int updateThreads,
+            boolean virtualThreads,
+            HttpConfig http,
+            ZoneCacheConfig zoneCache,
+            FlapDampingConfig flapDamping,
+            long propagationTimeoutMs,
+            String stateFile,
             //List<String> dnsServers,
-            String godaddyKey,
-            String godaddySecret,
+            List<AccountConfig> accounts,
             String notificationDomain,
             String notificationFrom,
             String notificationTo,
-            String mailgunApiKey
+            String mailgunApiKey,
+            long notificationWindowMs,
+            int metricsPort,
+            String metricsHost
     ) {
         //validate required configs
-        if (pollIntervalMs <= 0 || domain == null || domain.isEmpty()) {
+        if (pollIntervalMs <= 0) {
             throw new IllegalArgumentException();
         }
-        //validate godaddy configs
-        if (godaddyKey == null || godaddyKey.isEmpty() || godaddySecret == null || godaddySecret.isEmpty()) {
-            throw new IllegalArgumentException();
+        if (ipDetectionBudgetMs <= 0) {
+            throw new IllegalArgumentException("ipDetectionBudgetMs must be positive");
+        }
+        if (localCheckIntervalMs < 0) {
+            throw new IllegalArgumentException("localCheckIntervalMs must not be negative");
+        }
+        if (updateThreads < 1) {
+            throw new IllegalArgumentException("updateThreads must be positive");
+        }
+        if (http == null) {
+            throw new IllegalArgumentException("http configuration required");
+        }
+        if (zoneCache == null) {
+            throw new IllegalArgumentException("zone cache configuration required");
+        }
+        if (flapDamping == null) {
+            throw new IllegalArgumentException("flap damping configuration required");
+        }
+        if (propagationTimeoutMs < 0) {
+            throw new IllegalArgumentException("propagationTimeoutMs must not be negative");
+        }
+        if (stateFile != null && stateFile.isEmpty()) {
+            throw new IllegalArgumentException("stateFile must not be empty");
+        }
+        //validate accounts
+        if (accounts == null || accounts.isEmpty()) {
+            throw new IllegalArgumentException("at least one account (and domain) is required");
+        }
+        Set<String> accountNames = new HashSet<>();
+        Set<String> domains = new HashSet<>();
+        for (AccountConfig account : accounts) {
+            if (!accountNames.add(account.getName())) {
+                throw new IllegalArgumentException("duplicate account " + account.getName());
+            }
+            for (String domain : account.getDomains()) {
+                if (!domains.add(domain)) {
+                    throw new IllegalArgumentException("domain " + domain + " is configured more than once");
+                }
+            }
         }
         //validate (optional) notification configs
         if (notificationDomain != null || notificationFrom != null || notificationTo != null || mailgunApiKey != null) {
@@ -61,26 +138,91 @@ public class Config {
                 throw new IllegalArgumentException("must provide complete set of notification configs");
             }
         }
+        if (notificationWindowMs < 0) {
+            throw new IllegalArgumentException("notificationWindowMs must not be negative");
+        }
+        if (metricsPort < 0 || metricsPort > 65535) {
+            throw new IllegalArgumentException("metricsPort must be between 0 and 65535");
+        }
+        if (metricsHost == null || metricsHost.isEmpty()) {
+            throw new IllegalArgumentException("metricsHost required");
+        }
         //for (String server : dnsServers) {
         //    if (server == null || server.isEmpty()) {
         //        throw new IllegalArgumentException();
         //    }
         //}
         this.pollIntervalMs = pollIntervalMs;
-        this.domain = domain;
+        this.ipDetectionBudgetMs = ipDetectionBudgetMs;
+        this.localCheckIntervalMs = localCheckIntervalMs;
+        this.dnsIpCheck = dnsIpCheck;
+        this.updateThreads = updateThreads;
+        this.virtualThreads = virtualThreads;
+        this.http = http;
+        this.zoneCache = zoneCache;
+        this.flapDamping = flapDamping;
+        this.propagationTimeoutMs = propagationTimeoutMs;
+        this.stateFile = stateFile;
         //this.dnsServers = new ArrayList<>(dnsServers);
-        this.godaddyKey = godaddyKey;
-        this.godaddySecret = godaddySecret;
+        this.accounts = Collections.unmodifiableList(new ArrayList<>(accounts));
         this.notificationDomain = notificationDomain;
         this.notificationFrom = notificationFrom;
         this.notificationTo = notificationTo;
         this.mailgunApiKey = mailgunApiKey;
+        this.notificationWindowMs = notificationWindowMs;
+        this.metricsPort = metricsPort;
+        this.metricsHost = metricsHost;
     }
     
     public static Config deserailize(Properties from) {
         long pollIntervalMs;
+        long ipDetectionBudgetMs;
+        long localCheckIntervalMs;
+        int updateThreads;
+        long notificationWindowMs;
+        long propagationTimeoutMs;
+        int metricsPort;
+        List<AccountConfig> accounts = new ArrayList<>();
         try {
             pollIntervalMs = Long.parseLong(from.getProperty("pollIntervalMs"));
+            ipDetectionBudgetMs = Long.parseLong(from.getProperty("ipDetectionBudgetMs",
+                    Long.toString(MajorityVoteIpFinder.DEFAULT_BUDGET_MS)));
+            localCheckIntervalMs = Long.parseLong(from.getProperty("localCheckIntervalMs",
+                    Long.toString(DEFAULT_LOCAL_CHECK_INTERVAL_MS)));
+            updateThreads = Integer.parseInt(from.getProperty("updateThreads", Integer.toString(DEFAULT_UPDATE_THREADS)));
+            notificationWindowMs = Long.parseLong(from.getProperty("notificationWindowMs",
+                    Long.toString(Notifier.DEFAULT_WINDOW_MS)));
+            propagationTimeoutMs = Long.parseLong(from.getProperty("propagationTimeoutMs",
+                    Long.toString(PropagationVerifier.DEFAULT_TIMEOUT_MS)));
+            metricsPort = Integer.parseInt(from.getProperty("metricsPort", "0"));
+            //single account, configured at the top level
+            List<String> defaultDomains = new ArrayList<>();
+            if (from.getProperty("domain") != null) {
+                defaultDomains.add(from.getProperty("domain").trim());
+            }
+            defaultDomains.addAll(parseList(from.getProperty("domains")));
+            if (from.getProperty("godaddyKey") != null || !defaultDomains.isEmpty()) {
+                accounts.add(new AccountConfig(
+                        DEFAULT_ACCOUNT,
+                        from.getProperty("godaddyKey"),
+                        from.getProperty("godaddySecret"),
+                        Integer.parseInt(from.getProperty("maxConcurrentUpdates",
+                                Integer.toString(AccountConfig.DEFAULT_MAX_CONCURRENT_UPDATES))),
+                        defaultDomains
+                ));
+            }
+            //any number of named accounts
+            for (String name : parseList(from.getProperty("accounts"))) {
+                String prefix = "account." + name + ".";
+                accounts.add(new AccountConfig(
+                        name,
+                        from.getProperty(prefix + "godaddyKey"),
+                        from.getProperty(prefix + "godaddySecret"),
+                        Integer.parseInt(from.getProperty(prefix + "maxConcurrentUpdates",
+                                Integer.toString(AccountConfig.DEFAULT_MAX_CONCURRENT_UPDATES))),
+                        parseList(from.getProperty(prefix + "domains"))
+                ));
+            }
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException(e);
         }
@@ -95,33 +237,82 @@ public class Config {
         //}
         return new Config(
                 pollIntervalMs,
-                from.getProperty("domain"),
+                ipDetectionBudgetMs,
+                localCheckIntervalMs,
+                Boolean.parseBoolean(from.getProperty("dnsIpCheck", "true")),
+                updateThreads,
+                Boolean.parseBoolean(from.getProperty("virtualThreads", "false")),
+                HttpConfig.deserialize(from),
+                ZoneCacheConfig.deserialize(from),
+                FlapDampingConfig.deserialize(from),
+                propagationTimeoutMs,
+                from.getProperty("stateFile"),
                 //dnsServers,
-                from.getProperty("godaddyKey"),
-                from.getProperty("godaddySecret"),
+                accounts,
                 from.getProperty("notificationDomain"),
                 from.getProperty("notificationFrom"),
                 from.getProperty("notificationTo"),
-                from.getProperty("mailgunApiKey")
+                from.getProperty("mailgunApiKey"),
+                notificationWindowMs,
+                metricsPort,
+                from.getProperty("metricsHost", DEFAULT_METRICS_HOST)
         );
     }
 
     public Properties serialize() {
         Properties output = new Properties();
         output.setProperty("pollIntervalMs", Long.toString(pollIntervalMs));
-        output.setProperty("domain", domain);
+        output.setProperty("ipDetectionBudgetMs", Long.toString(ipDetectionBudgetMs));
+        output.setProperty("localCheckIntervalMs", Long.toString(localCheckIntervalMs));
+        output.setProperty("dnsIpCheck", Boolean.toString(dnsIpCheck));
+        output.setProperty("updateThreads", Integer.toString(updateThreads));
+        output.setProperty("virtualThreads", Boolean.toString(virtualThreads));
+        http.serialize(output);
+        zoneCache.serialize(output);
+        flapDamping.serialize(output);
+        output.setProperty("propagationTimeoutMs", Long.toString(propagationTimeoutMs));
+        if (stateFile != null) {
+            output.setProperty("stateFile", stateFile);
+        }
         //StringJoiner csv = new StringJoiner(",");
         //for (String dnsServer : dnsServers) {
         //    csv.add(dnsServer);
         //}
         //String value = csv.toString();
         //output.setProperty("dnsServers", value);
-        output.setProperty("godaddyKey", godaddyKey);
-        output.setProperty("godaddySecret", godaddySecret);
-        output.setProperty("notificationDomain", notificationDomain);
-        output.setProperty("notificationFrom", notificationFrom);
-        output.setProperty("notificationTo", notificationTo);
-        output.setProperty("mailgunApiKey", mailgunApiKey);
+        StringJoiner accountNames = new StringJoiner(",");
+        for (AccountConfig account : accounts) {
+            String prefix = "account." + account.getName() + ".";
+            accountNames.add(account.getName());
+            output.setProperty(prefix + "godaddyKey", account.getGodaddyKey());
+            output.setProperty(prefix + "godaddySecret", account.getGodaddySecret());
+            output.setProperty(prefix + "maxConcurrentUpdates", Integer.toString(account.getMaxConcurrentUpdates()));
+            output.setProperty(prefix + "domains", String.join(",", account.getDomains()));
+        }
+        output.setProperty("accounts", accountNames.toString());
+        if (notificationDomain != null) {
+            output.setProperty("notificationDomain", notificationDomain);
+            output.setProperty("notificationFrom", notificationFrom);
+            output.setProperty("notificationTo", notificationTo);
+            output.setProperty("mailgunApiKey", mailgunApiKey);
+        }
+        output.setProperty("notificationWindowMs", Long.toString(notificationWindowMs));
+        output.setProperty("metricsPort", Integer.toString(metricsPort));
+        output.setProperty("metricsHost", metricsHost);
+        return output;
+    }
+
+    private static List<String> parseList(String csv) {
+        List<String> output = new ArrayList<>();
+        if (csv == null) {
+            return output;
+        }
+        for (String part : csv.split(",")) {
+            String trimmed = part.trim();
+            if (!trimmed.isEmpty()) {
+                output.add(trimmed);
+            }
+        }
         return output;
     }
 
@@ -129,16 +320,48 @@ public class Config {
         return pollIntervalMs;
     }
 
-    public String getDomain() {
-        return domain;
+    public long getIpDetectionBudgetMs() {
+        return ipDetectionBudgetMs;
+    }
+
+    public long getLocalCheckIntervalMs() {
+        return localCheckIntervalMs;
+    }
+
+    public boolean isDnsIpCheck() {
+        return dnsIpCheck;
+    }
+
+    public int getUpdateThreads() {
+        return updateThreads;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public HttpConfig getHttp() {
+        return http;
     }
 
-    public String getGodaddyKey() {
-        return godaddyKey;
+    public ZoneCacheConfig getZoneCache() {
+        return zoneCache;
     }
 
-    public String getGodaddySecret() {
-        return godaddySecret;
+    public FlapDampingConfig getFlapDamping() {
+        return flapDamping;
+    }
+
+    public long getPropagationTimeoutMs() {
+        return propagationTimeoutMs;
+    }
+
+    public String getStateFile() {
+        return stateFile;
+    }
+
+    public List<AccountConfig> getAccounts() {
+        return accounts;
     }
 
     public String getNotificationDomain() {
@@ -156,4 +379,16 @@ public class Config {
     public String getMailgunApiKey() {
         return mailgunApiKey;
     }
+
+    public long getNotificationWindowMs() {
+        return notificationWindowMs;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public String getMetricsHost() {
+        return metricsHost;
+    }
 }
@@ -0,0 +1,76 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import net.radai.anthony.notifications.Notification;
+import net.radai.anthony.publicip.PublicIp;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * turns the raw stream of detected public IPs into going offline and coming back online,
+ * reporting each transition once rather than on every detection.
+ * IP changes themselves are reported by whoever updates DNS.
+ */
+public class Connectivity {
+    private final static Logger LOG = LogManager.getLogger(Connectivity.class);
+    /**
+     * so a flapping connection ends up as a single summary
+     */
+    public static final String COALESCE_KEY = "connectivity";
+    
+    private PublicIp currentIp = null;
+    private PublicIp lastOnlineIp = null;
+    private boolean complainedAboutOffline = false;
+
+    /**
+     * @param when time of detection
+     * @param ip detected public IP, null if offline
+     * @return notifications about any transition
+     */
+    public synchronized List<Notification> onDetection(Instant when, PublicIp ip) {
+        currentIp = ip;
+        if (ip == null) {
+            //we're offline
+            if (!complainedAboutOffline) {
+                LOG.info("went offline");
+                complainedAboutOffline = true;
+                return Collections.singletonList(new Notification(when, "went offline", COALESCE_KEY));
+            }
+            return Collections.emptyList();
+        }
+        //we're online
+        PublicIp previous = lastOnlineIp;
+        lastOnlineIp = ip;
+        if (complainedAboutOffline) {
+            LOG.info("came back online as {}", ip);
+            complainedAboutOffline = false;
+            if (ip.equals(previous)) {
+                return Collections.singletonList(new Notification(when, "came back online (ip unchanged - " + ip + ")", COALESCE_KEY));
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    public synchronized boolean isOnline() {
+        return currentIp != null;
+    }
+}
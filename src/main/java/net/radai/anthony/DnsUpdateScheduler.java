@@ -0,0 +1,294 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import net.radai.anthony.dns.DnsUpdater;
+import net.radai.anthony.dns.PropagationVerifier;
+import net.radai.anthony.metrics.Counter;
+import net.radai.anthony.metrics.Histogram;
+import net.radai.anthony.metrics.MetricsRegistry;
+import net.radai.anthony.notifications.Notification;
+import net.radai.anthony.publicip.PublicIp;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * keeps any number of domains, spread across any number of DNS provider accounts,
+ * pointed at the (single, shared) public IP. updates run concurrently on a shared
+ * pool, with a cap on concurrent updates per account.
+ */
+public class DnsUpdateScheduler implements AutoCloseable {
+    private final static Logger LOG = LogManager.getLogger(DnsUpdateScheduler.class);
+    
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+    private final PropagationVerifier verifier; //null to trust updaters blindly
+    private final StateJournal journal; //null to start from scratch on every boot
+    private final List<Account> accounts = new ArrayList<>();
+
+    public DnsUpdateScheduler(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException();
+        }
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "dns-updater-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ownExecutor = true;
+        this.verifier = null;
+        this.journal = null;
+    }
+
+    /**
+     * @param executor pool to run updates on. not shut down by this scheduler
+     */
+    public DnsUpdateScheduler(ExecutorService executor) {
+        this(executor, null, null);
+    }
+
+    /**
+     * @param executor pool to run updates on. not shut down by this scheduler
+     * @param verifier used to skip updates the name servers already reflect, and to follow up
+     *                 on the ones made. may be null
+     * @param journal where to remember what every domain was last pointed at, so domains already
+     *                up to date before a restart arent updated again after it. may be null
+     */
+    public DnsUpdateScheduler(ExecutorService executor, PropagationVerifier verifier, StateJournal journal) {
+        if (executor == null) {
+            throw new IllegalArgumentException();
+        }
+        this.executor = executor;
+        this.ownExecutor = false;
+        this.verifier = verifier;
+        this.journal = journal;
+    }
+
+    public void addAccount(String name, DnsUpdater updater, int maxConcurrentUpdates, List<String> domains) {
+        if (updater == null || maxConcurrentUpdates < 1 || domains == null || domains.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        List<ManagedDomain> managed = new ArrayList<>(domains.size());
+        for (String domain : domains) {
+            ManagedDomain managedDomain = new ManagedDomain(domain, name);
+            if (journal != null) {
+                managedDomain.lastGoodIp = journal.getLastIp(domain);
+                if (managedDomain.lastGoodIp != null) {
+                    LOG.info("{} was last set to {} at {}", domain, managedDomain.lastGoodIp, journal.getLastUpdate(domain));
+                }
+            }
+            managed.add(managedDomain);
+        }
+        accounts.add(new Account(name, updater, maxConcurrentUpdates, managed));
+    }
+
+    /**
+     * points every domain not already pointing there at the given IP. blocks until done.
+     * domains that fail to update will be retried on the next call.
+     * @param ip current public IP
+     * @param now timestamp for resulting notifications
+     * @return notifications about any changes made (or failures)
+     * @throws InterruptedException if interrupted while waiting on updates
+     */
+    public List<Notification> update(PublicIp ip, Instant now) throws InterruptedException {
+        try {
+            return updateAsync(ip, now).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e); //should never happen
+        }
+    }
+
+    /**
+     * same as {@link #update(PublicIp, Instant)}, without waiting for the updates to complete
+     * @param ip current public IP
+     * @param now timestamp for resulting notifications
+     * @return completes with notifications about any changes made (or failures) once all updates are done
+     */
+    public CompletableFuture<List<Notification>> updateAsync(PublicIp ip, Instant now) {
+        Queue<Notification> notifications = new ConcurrentLinkedQueue<>();
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (Account account : accounts) {
+            Queue<ManagedDomain> outdated = new ConcurrentLinkedQueue<>();
+            for (ManagedDomain domain : account.domains) {
+                if (!ip.equals(domain.lastGoodIp)) {
+                    outdated.add(domain);
+                }
+            }
+            //each worker drains the account's queue, so no more than maxConcurrentUpdates run at once
+            int numWorkers = Math.min(account.maxConcurrentUpdates, outdated.size());
+            for (int i = 0; i < numWorkers; i++) {
+                workers.add(drain(account, outdated, ip, now, notifications));
+            }
+        }
+        return CompletableFuture.allOf(workers.toArray(new CompletableFuture[0]))
+                .thenApply(nothing -> new ArrayList<>(notifications));
+    }
+    
+    /**
+     * updates the queued domains one after the other. pool threads only kick off updates,
+     * they arent held up waiting on updaters with an async api of their own.
+     */
+    private CompletableFuture<Void> drain(
+            Account account,
+            Queue<ManagedDomain> outdated,
+            PublicIp ip,
+            Instant now,
+            Queue<Notification> notifications
+    ) {
+        ManagedDomain domain = outdated.poll();
+        if (domain == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return alreadyServed(domain, ip)
+                .thenCompose(served -> {
+                    if (served) {
+                        LOG.info("{} already served as {} by all its name servers, not updating", domain.name, ip);
+                        domain.skipped.inc();
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    long start = System.nanoTime();
+                    return CompletableFuture.supplyAsync(() -> account.updater.updateAsync(domain.name, ip, true), executor)
+                            .thenCompose(update -> update)
+                            .whenComplete((changed, error) -> {
+                                domain.latency.observeSince(start);
+                                (error != null ? domain.failed : changed ? domain.changed : domain.unchanged).inc();
+                            });
+                })
+                .handle((changed, error) -> {
+                    Notification notification = updated(account, domain, ip, now, changed, error);
+                    if (notification != null) {
+                        notifications.add(notification);
+                    }
+                    return null;
+                })
+                .thenCompose(nothing -> drain(account, outdated, ip, now, notifications));
+    }
+    
+    private CompletableFuture<Boolean> alreadyServed(ManagedDomain domain, PublicIp ip) {
+        if (verifier == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return verifier.isServed(domain.name, ip, true).exceptionally(e -> false);
+    }
+    
+    private void awaitPropagation(ManagedDomain domain, PublicIp ip) {
+        if (verifier == null) {
+            return;
+        }
+        verifier.awaitPropagation(domain.name, ip).whenComplete((propagation, error) -> {
+            if (error != null) {
+                LOG.warn("unable to verify propagation of {}", domain.name, error);
+            } else if (propagation.isComplete()) {
+                LOG.info("{} served by all name servers after {} millis {}", domain.name,
+                        propagation.getTimeToConsistentMs(), propagation.getLatenciesMs());
+            } else {
+                LOG.warn("{} still not served by all name servers {}", domain.name, propagation.getLatenciesMs());
+            }
+        });
+    }
+    
+    private Notification updated(Account account, ManagedDomain domain, PublicIp ip, Instant now, Boolean changed, Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error == null) {
+            LOG.info("{} {} as {}", (changed ? "set" : "refreshed"), domain.name, ip);
+            if (changed) {
+                awaitPropagation(domain, ip);
+            }
+            String notificationText;
+            if (domain.lastGoodIp == null) {
+                //first time we're online since boot
+                notificationText = "connected as " + ip + ". DNS for " + domain.name + (changed ? " updated" : " refreshed");
+            } else {
+                notificationText = "ip changed from " + domain.lastGoodIp + " to " + ip + ". DNS for " + domain.name + " updated";
+            }
+            domain.complainedAboutUpdate = false;
+            domain.lastGoodIp = ip;
+            if (journal != null) {
+                journal.domainUpdated(domain.name, ip, now);
+            }
+            return new Notification(now, notificationText);
+        } else {
+            LOG.error("while updating DNS for " + domain.name + " (account " + account.name + ")", error);
+            if (!domain.complainedAboutUpdate) {
+                domain.complainedAboutUpdate = true;
+                return new Notification(now, "unable to update DNS for " + domain.name + ": " + error.getMessage());
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ownExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Account {
+        private final String name;
+        private final DnsUpdater updater;
+        private final int maxConcurrentUpdates;
+        private final List<ManagedDomain> domains;
+
+        private Account(String name, DnsUpdater updater, int maxConcurrentUpdates, List<ManagedDomain> domains) {
+            this.name = name;
+            this.updater = updater;
+            this.maxConcurrentUpdates = maxConcurrentUpdates;
+            this.domains = Collections.unmodifiableList(domains);
+        }
+    }
+
+    private static class ManagedDomain {
+        private final String name;
+        //handled by a single pool thread at a time, but not necessarily the same one every cycle
+        private volatile PublicIp lastGoodIp = null;
+        private volatile boolean complainedAboutUpdate = false;
+        private final Histogram latency;
+        private final Counter changed;
+        private final Counter unchanged;
+        private final Counter skipped; //already served by all name servers, updater not called
+        private final Counter failed;
+
+        private ManagedDomain(String name, String account) {
+            this.name = name;
+            MetricsRegistry registry = MetricsRegistry.shared();
+            String updatesHelp = "DNS updates, by result";
+            latency = registry.histogram("anthony_dns_update_seconds", "time taken by DNS updaters to update a domain",
+                    "account", account, "domain", name);
+            changed = registry.counter("anthony_dns_updates_total", updatesHelp, "account", account, "domain", name, "result", "changed");
+            unchanged = registry.counter("anthony_dns_updates_total", updatesHelp, "account", account, "domain", name, "result", "unchanged");
+            skipped = registry.counter("anthony_dns_updates_total", updatesHelp, "account", account, "domain", name, "result", "skipped");
+            failed = registry.counter("anthony_dns_updates_total", updatesHelp, "account", account, "domain", name, "result", "failed");
+        }
+    }
+}
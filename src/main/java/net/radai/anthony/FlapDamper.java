@@ -0,0 +1,147 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import net.radai.anthony.publicip.PublicIp;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * decides which detected public IP DNS should actually be pointed at. a new IP is only acted on
+ * once it has been seen for enough consecutive detections (and for long enough). on top of that,
+ * every time an IP (re)appears it collects a penalty that decays exponentially over time - an IP
+ * whose penalty goes over the suppress limit (because it keeps coming and going) is held off until
+ * its penalty decays below the reuse limit. this is the same scheme used to damp flapping BGP routes.
+ */
+public class FlapDamper {
+    private final static Logger LOG = LogManager.getLogger(FlapDamper.class);
+    public static final double PENALTY = 1000;
+    public static final double SUPPRESS_LIMIT = 2000;
+    public static final double REUSE_LIMIT = 750;
+    
+    private final int stableDetections;
+    private final long stableMs;
+    private final long halfLifeMs; //0 for no penalties
+    private final Map<PublicIp, Penalty> penalties = new HashMap<>();
+    private PublicIp accepted = null; //what DNS should point at
+    private PublicIp candidate = null; //what it might point at next
+    private Instant candidateSince = null;
+    private int candidateDetections = 0;
+
+    public FlapDamper(int stableDetections, long stableMs, long halfLifeMs) {
+        if (stableDetections < 1 || stableMs < 0 || halfLifeMs < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.stableDetections = stableDetections;
+        this.stableMs = stableMs;
+        this.halfLifeMs = halfLifeMs;
+    }
+
+    public FlapDamper(FlapDampingConfig config) {
+        this(config.getStableDetections(), config.getStableMs(), config.getHalfLifeMs());
+    }
+
+    /**
+     * @param when time of detection
+     * @param ip detected public IP (not null)
+     * @return the IP DNS should point at - the given one if it has held long enough (or is the 1st
+     * one seen since boot), otherwise the previous one
+     */
+    public synchronized PublicIp onDetection(Instant when, PublicIp ip) {
+        if (ip == null) {
+            throw new IllegalArgumentException();
+        }
+        if (accepted == null || ip.equals(accepted)) {
+            //nothing to damp on boot, and whatever came up in between didnt last
+            accepted = ip;
+            candidate = null;
+            return accepted;
+        }
+        if (!ip.equals(candidate)) {
+            candidate = ip;
+            candidateSince = when;
+            candidateDetections = 0;
+            penalize(ip, when);
+        }
+        candidateDetections++;
+        if (candidateDetections < stableDetections || Duration.between(candidateSince, when).toMillis() < stableMs) {
+            LOG.debug("{} seen {} times since {}, not acting on it yet", ip, candidateDetections, candidateSince);
+            return accepted;
+        }
+        if (isSuppressed(ip, when)) {
+            return accepted;
+        }
+        LOG.info("{} is stable, replacing {}", ip, accepted);
+        accepted = ip;
+        candidate = null;
+        return accepted;
+    }
+    
+    private void penalize(PublicIp ip, Instant when) {
+        if (halfLifeMs == 0) {
+            return;
+        }
+        //forget penalties that have all but decayed away, so this doesnt grow forever
+        Iterator<Penalty> iterator = penalties.values().iterator();
+        while (iterator.hasNext()) {
+            Penalty penalty = iterator.next();
+            if (!penalty.suppressed && penalty.decayed(when, halfLifeMs) < 1) {
+                iterator.remove();
+            }
+        }
+        Penalty penalty = penalties.computeIfAbsent(ip, k -> new Penalty(when));
+        penalty.value = penalty.decayed(when, halfLifeMs) + PENALTY;
+        penalty.at = when;
+    }
+    
+    private boolean isSuppressed(PublicIp ip, Instant when) {
+        Penalty penalty = penalties.get(ip);
+        if (penalty == null) {
+            return false;
+        }
+        double value = penalty.decayed(when, halfLifeMs);
+        if (!penalty.suppressed && value >= SUPPRESS_LIMIT) {
+            LOG.warn("{} keeps coming and going, holding off on it", ip);
+            penalty.suppressed = true;
+        } else if (penalty.suppressed && value < REUSE_LIMIT) {
+            LOG.info("{} has settled down", ip);
+            penalty.suppressed = false;
+        }
+        return penalty.suppressed;
+    }
+    
+    private static class Penalty {
+        private double value = 0;
+        private Instant at;
+        private boolean suppressed = false;
+
+        private Penalty(Instant at) {
+            this.at = at;
+        }
+        
+        private double decayed(Instant when, long halfLifeMs) {
+            long elapsed = Math.max(0, Duration.between(at, when).toMillis());
+            return value * Math.pow(0.5, (double) elapsed / halfLifeMs);
+        }
+    }
+}
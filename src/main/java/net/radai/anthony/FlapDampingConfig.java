@@ -0,0 +1,82 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import java.util.Properties;
+
+/**
+ * settings for how long a new public IP has to hold before DNS is pointed at it,
+ * and how hard IPs that keep coming and going are held off
+ */
+public class FlapDampingConfig {
+    public static final int DEFAULT_STABLE_DETECTIONS = 1;
+    public static final long DEFAULT_STABLE_MS = 0;
+    public static final long DEFAULT_HALF_LIFE_MS = 900000; //15 minutes
+    
+    private final int stableDetections; //consecutive detections of a new ip before acting on it
+    private final long stableMs; //and for at least this long
+    private final long halfLifeMs; //of flapping penalties, 0 to never hold off flapping ips
+
+    public FlapDampingConfig(int stableDetections, long stableMs, long halfLifeMs) {
+        if (stableDetections < 1) {
+            throw new IllegalArgumentException("stableDetections must be positive");
+        }
+        if (stableMs < 0) {
+            throw new IllegalArgumentException("stableMs must not be negative");
+        }
+        if (halfLifeMs < 0) {
+            throw new IllegalArgumentException("flapHalfLifeMs must not be negative");
+        }
+        this.stableDetections = stableDetections;
+        this.stableMs = stableMs;
+        this.halfLifeMs = halfLifeMs;
+    }
+
+    public FlapDampingConfig() {
+        this(DEFAULT_STABLE_DETECTIONS, DEFAULT_STABLE_MS, DEFAULT_HALF_LIFE_MS);
+    }
+
+    public static FlapDampingConfig deserialize(Properties from) {
+        try {
+            return new FlapDampingConfig(
+                    Integer.parseInt(from.getProperty("stableDetections", Integer.toString(DEFAULT_STABLE_DETECTIONS))),
+                    Long.parseLong(from.getProperty("stableMs", Long.toString(DEFAULT_STABLE_MS))),
+                    Long.parseLong(from.getProperty("flapHalfLifeMs", Long.toString(DEFAULT_HALF_LIFE_MS)))
+            );
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    public void serialize(Properties into) {
+        into.setProperty("stableDetections", Integer.toString(stableDetections));
+        into.setProperty("stableMs", Long.toString(stableMs));
+        into.setProperty("flapHalfLifeMs", Long.toString(halfLifeMs));
+    }
+
+    public int getStableDetections() {
+        return stableDetections;
+    }
+
+    public long getStableMs() {
+        return stableMs;
+    }
+
+    public long getHalfLifeMs() {
+        return halfLifeMs;
+    }
+}
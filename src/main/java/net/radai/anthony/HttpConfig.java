@@ -0,0 +1,160 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import org.asynchttpclient.AsyncHttpClientConfig;
+import org.asynchttpclient.DefaultAsyncHttpClientConfig;
+
+import java.util.Properties;
+
+/**
+ * settings for the single http client shared by everything that talks http
+ */
+public class HttpConfig {
+    public static final int DEFAULT_IO_THREADS = 2;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 15000;
+    public static final int DEFAULT_REQUEST_TIMEOUT_MS = 30000;
+    /**
+     * no limit. per-host concurrency is already bounded by the callers (a handful of ip providers, and
+     * every account's maxConcurrentUpdates), and a limit below that makes requests fail outright instead of waiting
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = -1;
+    public static final int DEFAULT_POOLED_CONNECTION_IDLE_TIMEOUT_MS = 120000;
+    public static final int DEFAULT_SSL_SESSION_TIMEOUT_SEC = 86400;
+    
+    private final int ioThreads;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final int requestTimeoutMs;
+    private final boolean keepAlive;
+    private final int maxConnectionsPerHost;
+    private final int pooledConnectionIdleTimeoutMs;
+    private final int sslSessionTimeoutSec;
+
+    public HttpConfig(
+            int ioThreads,
+            int connectTimeoutMs,
+            int readTimeoutMs,
+            int requestTimeoutMs,
+            boolean keepAlive,
+            int maxConnectionsPerHost,
+            int pooledConnectionIdleTimeoutMs,
+            int sslSessionTimeoutSec
+    ) {
+        if (ioThreads < 1 || connectTimeoutMs <= 0 || readTimeoutMs <= 0 || requestTimeoutMs <= 0
+                || maxConnectionsPerHost == 0 || maxConnectionsPerHost < -1 || pooledConnectionIdleTimeoutMs <= 0 || sslSessionTimeoutSec < 0) {
+            throw new IllegalArgumentException("invalid http configuration");
+        }
+        this.ioThreads = ioThreads;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.keepAlive = keepAlive;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.pooledConnectionIdleTimeoutMs = pooledConnectionIdleTimeoutMs;
+        this.sslSessionTimeoutSec = sslSessionTimeoutSec;
+    }
+    
+    public HttpConfig() {
+        this(
+                DEFAULT_IO_THREADS,
+                DEFAULT_CONNECT_TIMEOUT_MS,
+                DEFAULT_READ_TIMEOUT_MS,
+                DEFAULT_REQUEST_TIMEOUT_MS,
+                true,
+                DEFAULT_MAX_CONNECTIONS_PER_HOST,
+                DEFAULT_POOLED_CONNECTION_IDLE_TIMEOUT_MS,
+                DEFAULT_SSL_SESSION_TIMEOUT_SEC
+        );
+    }
+    
+    public static HttpConfig deserialize(Properties from) {
+        try {
+            return new HttpConfig(
+                    Integer.parseInt(from.getProperty("httpIoThreads", Integer.toString(DEFAULT_IO_THREADS))),
+                    Integer.parseInt(from.getProperty("httpConnectTimeoutMs", Integer.toString(DEFAULT_CONNECT_TIMEOUT_MS))),
+                    Integer.parseInt(from.getProperty("httpReadTimeoutMs", Integer.toString(DEFAULT_READ_TIMEOUT_MS))),
+                    Integer.parseInt(from.getProperty("httpRequestTimeoutMs", Integer.toString(DEFAULT_REQUEST_TIMEOUT_MS))),
+                    Boolean.parseBoolean(from.getProperty("httpKeepAlive", "true")),
+                    Integer.parseInt(from.getProperty("httpMaxConnectionsPerHost", Integer.toString(DEFAULT_MAX_CONNECTIONS_PER_HOST))),
+                    Integer.parseInt(from.getProperty("httpPooledConnectionIdleTimeoutMs", Integer.toString(DEFAULT_POOLED_CONNECTION_IDLE_TIMEOUT_MS))),
+                    Integer.parseInt(from.getProperty("httpSslSessionTimeoutSec", Integer.toString(DEFAULT_SSL_SESSION_TIMEOUT_SEC)))
+            );
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+    
+    public void serialize(Properties into) {
+        into.setProperty("httpIoThreads", Integer.toString(ioThreads));
+        into.setProperty("httpConnectTimeoutMs", Integer.toString(connectTimeoutMs));
+        into.setProperty("httpReadTimeoutMs", Integer.toString(readTimeoutMs));
+        into.setProperty("httpRequestTimeoutMs", Integer.toString(requestTimeoutMs));
+        into.setProperty("httpKeepAlive", Boolean.toString(keepAlive));
+        into.setProperty("httpMaxConnectionsPerHost", Integer.toString(maxConnectionsPerHost));
+        into.setProperty("httpPooledConnectionIdleTimeoutMs", Integer.toString(pooledConnectionIdleTimeoutMs));
+        into.setProperty("httpSslSessionTimeoutSec", Integer.toString(sslSessionTimeoutSec));
+    }
+
+    public AsyncHttpClientConfig toClientConfig() {
+        return new DefaultAsyncHttpClientConfig.Builder()
+                .setThreadPoolName("anthony-http")
+                .setIoThreadsCount(ioThreads)
+                .setConnectTimeout(connectTimeoutMs)
+                .setReadTimeout(readTimeoutMs)
+                .setRequestTimeout(requestTimeoutMs)
+                .setKeepAlive(keepAlive)
+                .setMaxConnectionsPerHost(maxConnectionsPerHost)
+                .setPooledConnectionIdleTimeout(pooledConnectionIdleTimeoutMs)
+                //resume tls sessions on new connections, skipping the full handshake
+                .setSslSessionTimeout(sslSessionTimeoutSec)
+                .build();
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    public int getRequestTimeoutMs() {
+        return requestTimeoutMs;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public int getPooledConnectionIdleTimeoutMs() {
+        return pooledConnectionIdleTimeoutMs;
+    }
+
+    public int getSslSessionTimeoutSec() {
+        return sslSessionTimeoutSec;
+    }
+}
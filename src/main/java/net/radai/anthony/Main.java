@@ -16,20 +16,34 @@
 
 package net.radai.anthony;
 
+import net.radai.anthony.dns.ApiRateLimiter;
 import net.radai.anthony.dns.DnsUpdater;
 import net.radai.anthony.dns.GoDaddyDnsUpdater;
+import net.radai.anthony.dns.PropagationVerifier;
+import net.radai.anthony.metrics.Histogram;
+import net.radai.anthony.metrics.MetricsRegistry;
+import net.radai.anthony.metrics.MetricsServer;
 import net.radai.anthony.notifications.MailgunNotificationSender;
 import net.radai.anthony.notifications.NopNotificationSender;
 import net.radai.anthony.notifications.Notification;
 import net.radai.anthony.notifications.NotificationSender;
+import net.radai.anthony.publicip.DnsIpFinder;
+import net.radai.anthony.publicip.LocalNetworkMonitor;
 import net.radai.anthony.publicip.MajorityVoteIpFinder;
 import net.radai.anthony.publicip.PublicIp;
 import net.radai.anthony.publicip.PublicIpFinder;
+import net.radai.anthony.publicip.TieredIpFinder;
+import net.radai.anthony.publicip.provider.AmazonCheckIp;
 import net.radai.anthony.publicip.provider.ICanHazIp;
+import net.radai.anthony.publicip.provider.Ipify;
 import net.radai.anthony.publicip.provider.WhatIp;
 import net.radai.anthony.publicip.provider.WhatIsMyIp4;
+import net.radai.anthony.tracing.Span;
+import net.radai.anthony.tracing.Tracing;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClient;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -38,9 +52,14 @@ import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Main {
     private final static Logger LOG = LogManager.getLogger(Main.class);
@@ -50,115 +69,146 @@ public class Main {
         Clock clock = Clock.systemUTC();
         Instant bootTime = clock.instant();
         Config config = findConfig();
+        if (config.getMetricsPort() > 0) {
+            MetricsServer metricsServer = new MetricsServer(config.getMetricsHost(), config.getMetricsPort());
+            Runtime.getRuntime().addShutdownHook(new Thread(metricsServer::close, "metrics-server-shutdown"));
+        }
+        Histogram cycleDuration = MetricsRegistry.shared().histogram("anthony_cycle_seconds",
+                "time taken by a poll cycle, from detection until updates are handed off");
+        //one client (so one set of io threads and one connection pool) for everything
+        AsyncHttpClient httpClient = new DefaultAsyncHttpClient(config.getHttp().toClientConfig());
+        //the 1st 3 are queried every cycle, the rest are spares used for hedging
         PublicIpFinder ipFinder = new MajorityVoteIpFinder(
-                new ICanHazIp(),
-                new WhatIp(),
-                new WhatIsMyIp4()
+                httpClient,
+                2,
+                3,
+                config.getIpDetectionBudgetMs(),
+                Arrays.asList(
+                        new ICanHazIp(),
+                        new WhatIp(),
+                        new WhatIsMyIp4(),
+                        new Ipify(),
+                        new AmazonCheckIp()
+                )
         );
-        DnsUpdater updater = new GoDaddyDnsUpdater(config.getGodaddyKey(), config.getGodaddySecret());
-        NotificationSender notifier = new NopNotificationSender();
+        if (config.isDnsIpCheck()) {
+            //only bother the http services when a single DNS query suggests something changed
+            ipFinder = new TieredIpFinder(DnsIpFinder.openDns(), ipFinder);
+        }
+        LocalNetworkMonitor localNetwork = new LocalNetworkMonitor(config.getLocalCheckIntervalMs());
+        //everything downstream of detection runs (asynchronously) on this pool
+        ExecutorService pipelineExecutor;
+        if (config.isVirtualThreads() && VirtualThreads.isSupported()) {
+            //every update (and any blocking call it makes) gets a virtual thread of its own
+            LOG.info("using virtual threads");
+            pipelineExecutor = VirtualThreads.newThreadPerTaskExecutor("pipeline-");
+        } else {
+            if (config.isVirtualThreads()) {
+                LOG.warn("virtual threads require java 21+ (and a jar built on it), using {} platform threads", config.getUpdateThreads());
+            }
+            AtomicInteger threadCounter = new AtomicInteger();
+            pipelineExecutor = Executors.newFixedThreadPool(config.getUpdateThreads(), runnable -> {
+                Thread thread = new Thread(runnable, "pipeline-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        NotificationSender sender = new NopNotificationSender();
         if (config.getNotificationDomain() != null) {
-            notifier = new MailgunNotificationSender(
+            sender = new MailgunNotificationSender(
+                    httpClient,
                     config.getNotificationDomain(),
                     config.getNotificationFrom(),
                     config.getNotificationTo(),
                     config.getMailgunApiKey()
             );
         }
+        StateJournal journal = null;
+        if (config.getStateFile() != null) {
+            journal = new StateJournal(new File(config.getStateFile()));
+            Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "state-journal-shutdown"));
+        }
+        Notifier notifier = new Notifier(sender, pipelineExecutor, clock, Notifier.DEFAULT_CAPACITY, journal,
+                config.getNotificationWindowMs());
+        ZoneCacheConfig zoneCache = config.getZoneCache();
+        PropagationVerifier verifier = null;
+        if (config.getPropagationTimeoutMs() > 0) {
+            verifier = new PropagationVerifier(pipelineExecutor, config.getPropagationTimeoutMs());
+        }
+        //godaddy quotas are per key, and nothing stops 2 accounts from sharing a key
+        Map<String, ApiRateLimiter> limiters = new HashMap<>();
+        //one pipeline per account, so a slow (or rate limited) account doesnt hold up the others
+        List<UpdatePipeline> pipelines = new ArrayList<>();
+        for (AccountConfig account : config.getAccounts()) {
+            ApiRateLimiter limiter = limiters.computeIfAbsent(account.getGodaddyKey(), k -> ApiRateLimiter.godaddy(account.getName()));
+            DnsUpdater updater = new GoDaddyDnsUpdater(
+                    httpClient,
+                    account.getGodaddyKey(),
+                    account.getGodaddySecret(),
+                    limiter,
+                    zoneCache.getTtlMs(),
+                    zoneCache.getSnapshotDir() != null ? new File(zoneCache.getSnapshotDir()) : null,
+                    zoneCache.isVerify(),
+                    pipelineExecutor
+            );
+            DnsUpdateScheduler scheduler = new DnsUpdateScheduler(pipelineExecutor, verifier, journal);
+            scheduler.addAccount(account.getName(), updater, account.getMaxConcurrentUpdates(), account.getDomains());
+            pipelines.add(new UpdatePipeline("updates-" + account.getName(), scheduler, pipelineExecutor, clock, notifier::add));
+        }
+        Connectivity connectivity = new Connectivity();
+        FlapDamper damper = new FlapDamper(config.getFlapDamping());
         
         Duration interval = Duration.ofMillis(config.getPollIntervalMs());
         
         boolean alive = true;
-        PublicIp currentIp = null;
-        PublicIp previousIp = currentIp;
-        PublicIp lastGoodIp = null;
-        List<Notification> notifications = new ArrayList<>();
-        notifications.add(new Notification(bootTime, "booted"));
-        boolean complainedAboutUpdate = false;
-        boolean complainedAboutOffline = false;
-        boolean complainedAboutNotifications = false;
+        notifier.add(new Notification(bootTime, "booted"));
         Instant cycleStart;
         Instant nextCycleStart;
+        long cycle = 0;
+        if (Tracing.isSupported()) {
+            LOG.info("cycle phases and outbound requests are traced as JFR events (when recording)");
+        }
         
+        //this thread only detects. updates and notifications happen on the pipeline pool,
+        //so neither a slow DNS provider nor a slow mail service delay the next detection
         while (alive) {
             cycleStart = clock.instant();
             nextCycleStart = cycleStart.plus(interval);
+            long cycleStartNanos = System.nanoTime();
+            cycle++;
             
+            Span phase = Tracing.phase(cycle, "detect");
             try {
-                // handle any IP/connectivity changes
-                currentIp = ipFinder.get();
+                PublicIp currentIp = ipFinder.get();
+                phase.finish();
+                phase = Tracing.phase(cycle, "dispatch");
                 LOG.debug("public ip is {}", currentIp);
-                if (!Objects.equals(currentIp, lastGoodIp) || !Objects.equals(currentIp, previousIp)) {
-                    if (currentIp == null) {
-                        //we're offline
-                        if (!complainedAboutOffline) {
-                            LOG.info("went offline");
-                            notifications.add(new Notification(cycleStart, "went offline"));
-                            complainedAboutOffline = true;
-                        }
-                    } else {
-                        //we're online
-                        if (complainedAboutOffline) {
-                            LOG.info("came back online as {}", currentIp);
-                            complainedAboutOffline = false;
-                        }
-                        if (currentIp.equals(lastGoodIp)) {
-                            notifications.add(new Notification(cycleStart, "came back online (ip unchanged - " + currentIp + ")"));
-                        } else {
-                            try {
-                                boolean changed = updater.update(config.getDomain(), currentIp, true);
-                                LOG.info("{} {} as {}", (changed ? "set" : "refreshed"), config.getDomain(), currentIp);
-                                String notificationText;
-                                if (lastGoodIp == null) {
-                                    //first time we're online since boot
-                                    if (changed) {
-                                        notificationText = "connected as " + currentIp + ". DNS updated";
-                                    } else {
-                                        notificationText = "connected as " + currentIp + ". DNS refreshed";
-                                    }
-                                } else {
-                                    notificationText = "ip changed from " + lastGoodIp + " to " + currentIp + ". DNS updated";
-                                }
-                                notifications.add(new Notification(cycleStart, notificationText));
-                                complainedAboutUpdate = false;
-                                lastGoodIp = currentIp;
-                            } catch (Exception e) {
-                                LOG.error("while updating DNS", e);
-                                if (!complainedAboutUpdate) {
-                                    complainedAboutUpdate = true;
-                                    notifications.add(new Notification(cycleStart, "unable to update DNS: " + e.getMessage()));
-                                }
-                            }
-                        }
-                    }
-                    
-                }
-                previousIp = currentIp;
-
-                //send out any pending notifications (if online)
-                if (currentIp != null && !notifications.isEmpty()) {
-                    try {
-                        notifier.send(notifications);
-                        LOG.info("sent {} notifications", notifications.size());
-                        notifications.clear();
-                        complainedAboutNotifications = false;
-                    } catch (Exception e) {
-                        LOG.error("while sending notifications", e);
-                        if (!complainedAboutNotifications) {
-                            notifications.add(new Notification(cycleStart, "unable to send notifications: " + e.getMessage()));
-                            complainedAboutNotifications = true;
-                        }
+                connectivity.onDetection(cycleStart, currentIp).forEach(notifier::add);
+                if (currentIp != null) {
+                    //a new ip has to hold for a while before DNS follows it
+                    PublicIp targetIp = damper.onDetection(cycleStart, currentIp);
+                    //(re)tries every domain not already pointing at the target ip
+                    for (UpdatePipeline pipeline : pipelines) {
+                        pipeline.offer(targetIp);
                     }
                 }
+                //pending notifications only go out (or are retried) while online
+                notifier.setOnline(currentIp != null);
+                phase.finish();
             } catch (Exception e) {
+                phase.fail(e);
                 LOG.error("during poll cycle", e);
             }
+            cycleDuration.observeSince(cycleStartNanos);
             
+            phase = Tracing.phase(cycle, "wait");
             try {
                 long remaining = Duration.between(clock.instant(), nextCycleStart).toMillis();
                 if (remaining > 0) {
                     LOG.debug("waiting {} millis for next cycle", remaining);
-                    Thread.sleep(remaining);
+                    if (localNetwork.awaitChange(remaining)) {
+                        LOG.info("local network changed, checking public ip early");
+                    }
                 }
             } catch (InterruptedException e) {
                 if (!alive) {
@@ -167,6 +217,7 @@ public class Main {
                     LOG.debug("interrupted waiting for next poll", e);
                 }
             }
+            phase.finish();
         }
         
         LOG.info("terminating");
@@ -0,0 +1,227 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import net.radai.anthony.metrics.Counter;
+import net.radai.anthony.metrics.Histogram;
+import net.radai.anthony.metrics.MetricsRegistry;
+import net.radai.anthony.notifications.Notification;
+import net.radai.anthony.notifications.NotificationSender;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the last stage of the pipeline - an outbox that collects notifications from everywhere and sends them
+ * out in batches, asynchronously, whenever we're online. a batch goes out once its oldest notification
+ * has waited out the batch window, or sooner if enough pile up. consecutive notifications about the same
+ * thing are coalesced into one. failed batches are retried with exponential backoff.
+ */
+public class Notifier {
+    private final static Logger LOG = LogManager.getLogger(Notifier.class);
+    public static final int DEFAULT_CAPACITY = 1000;
+    public static final long DEFAULT_WINDOW_MS = 30000;
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    public static final long MIN_BACKOFF_MS = 60000;
+    public static final long MAX_BACKOFF_MS = TimeUnit.HOURS.toMillis(1);
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "notifier-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final NotificationSender sender;
+    private final Clock clock;
+    private final int capacity;
+    private final long windowMs;
+    private final int batchSize;
+    private final long minBackoffMs;
+    private final long maxBackoffMs;
+    private final Stage<Notification> stage;
+    private final StateJournal journal; //null to not keep pending notifications across restarts
+    private volatile boolean online = false;
+    //only ever touched by the stage (one batch at a time)
+    private final List<Notification> pending = new ArrayList<>();
+    private long oldestQueuedAt = 0; //when the oldest pending notification was queued (clock millis)
+    private long backoffMs = 0; //0 when the last attempt went fine
+    private long nextAttemptAt = 0;
+    private long wakeupAt = Long.MAX_VALUE; //when the next poke is scheduled
+    private boolean complainedAboutNotifications = false;
+    private final Histogram sendLatency;
+    private final Counter sentBatches;
+    private final Counter failedBatches;
+    private final Counter sentNotifications;
+
+    Notifier(
+            NotificationSender sender,
+            Executor executor,
+            Clock clock,
+            int capacity,
+            StateJournal journal,
+            long windowMs,
+            int batchSize,
+            long minBackoffMs,
+            long maxBackoffMs
+    ) {
+        if (capacity < 1 || windowMs < 0 || batchSize < 1 || minBackoffMs <= 0 || maxBackoffMs < minBackoffMs) {
+            throw new IllegalArgumentException();
+        }
+        this.sender = sender;
+        this.clock = clock;
+        this.capacity = capacity;
+        this.windowMs = windowMs;
+        this.batchSize = batchSize;
+        this.minBackoffMs = minBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.stage = new Stage<>("notifier", executor, capacity, this::send);
+        this.journal = journal;
+        if (journal != null) {
+            //already waited long enough
+            pending.addAll(journal.getPending());
+        }
+        MetricsRegistry registry = MetricsRegistry.shared();
+        sendLatency = registry.histogram("anthony_notification_send_seconds", "time taken to send a batch of notifications");
+        sentBatches = registry.counter("anthony_notification_batches_total", "notification batches, by result", "result", "sent");
+        failedBatches = registry.counter("anthony_notification_batches_total", "notification batches, by result", "result", "failed");
+        sentNotifications = registry.counter("anthony_notifications_sent_total", "notifications sent");
+        //read outside the stage, but a slightly stale size is fine for a gauge
+        registry.gauge("anthony_notifications_pending", "notifications waiting to be sent", pending::size);
+    }
+
+    /**
+     * @param journal where to keep pending notifications, so they survive restarts. any found there
+     *                are sent the next time we're online. may be null
+     * @param windowMs how long to hold on to notifications, so they go out together
+     */
+    public Notifier(NotificationSender sender, Executor executor, Clock clock, int capacity, StateJournal journal, long windowMs) {
+        this(sender, executor, clock, capacity, journal, windowMs, DEFAULT_BATCH_SIZE, MIN_BACKOFF_MS, MAX_BACKOFF_MS);
+    }
+
+    public Notifier(NotificationSender sender, Executor executor, Clock clock, int capacity) {
+        this(sender, executor, clock, capacity, null, DEFAULT_WINDOW_MS);
+    }
+
+    public Notifier(NotificationSender sender, Executor executor, Clock clock) {
+        this(sender, executor, clock, DEFAULT_CAPACITY);
+    }
+
+    public void add(Notification notification) {
+        stage.offer(notification);
+    }
+
+    /**
+     * @param online whether we're currently online. being online is also a cue to send any pending notifications
+     *               that are due (but not to retry a failed batch before its backoff is over)
+     */
+    public void setOnline(boolean online) {
+        this.online = online;
+        if (online) {
+            stage.poke();
+        }
+    }
+    
+    private CompletableFuture<?> send(List<Notification> batch) {
+        for (Notification notification : batch) {
+            enqueue(notification);
+        }
+        if (pending.size() > capacity) {
+            int excess = pending.size() - capacity;
+            pending.subList(0, excess).clear();
+            if (journal != null) {
+                journal.dequeued(excess);
+            }
+        }
+        if (!online || pending.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long now = clock.millis();
+        long due = nextAttemptAt;
+        if (pending.size() < batchSize) {
+            due = Math.max(due, oldestQueuedAt + windowMs);
+        }
+        if (now < due) {
+            wakeUpAt(due, now);
+            return CompletableFuture.completedFuture(null);
+        }
+        List<Notification> sending = new ArrayList<>(pending);
+        long start = System.nanoTime();
+        return sender.sendAsync(sending).handle((nothing, error) -> {
+            sendLatency.observeSince(start);
+            if (error == null) {
+                LOG.info("sent {} notifications", sending.size());
+                sentBatches.inc();
+                sentNotifications.inc(sending.size());
+                //nothing else touches pending while sending, so these are still the oldest ones
+                pending.subList(0, sending.size()).clear();
+                if (journal != null) {
+                    journal.dequeued(sending.size());
+                }
+                backoffMs = 0;
+                nextAttemptAt = 0;
+                complainedAboutNotifications = false;
+                return null;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            failedBatches.inc();
+            backoffMs = backoffMs == 0 ? minBackoffMs : Math.min(backoffMs * 2, maxBackoffMs);
+            nextAttemptAt = clock.millis() + backoffMs;
+            LOG.error("while sending notifications, will retry in {} millis", backoffMs, cause);
+            if (!complainedAboutNotifications) {
+                enqueue(new Notification(clock.instant(), "unable to send notifications: " + cause.getMessage()));
+                complainedAboutNotifications = true;
+            }
+            wakeUpAt(nextAttemptAt, clock.millis());
+            return null;
+        });
+    }
+    
+    private void enqueue(Notification notification) {
+        if (pending.isEmpty()) {
+            oldestQueuedAt = clock.millis();
+        }
+        int last = pending.size() - 1;
+        if (last >= 0 && pending.get(last).canCoalesce(notification)) {
+            Notification coalesced = pending.get(last).coalesce(notification);
+            pending.set(last, coalesced);
+            if (journal != null) {
+                journal.replacedLast(coalesced);
+            }
+            return;
+        }
+        pending.add(notification);
+        if (journal != null) {
+            journal.queued(notification);
+        }
+    }
+    
+    private void wakeUpAt(long at, long now) {
+        if (wakeupAt > now && wakeupAt <= at) {
+            return; //already scheduled for no later than that
+        }
+        wakeupAt = at;
+        TIMER.schedule(stage::poke, at - now, TimeUnit.MILLISECONDS);
+    }
+}
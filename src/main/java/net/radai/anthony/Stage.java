@@ -0,0 +1,118 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * one step of a pipeline. items offered to a stage are buffered and handed over to its handler
+ * in batches, one batch at a time, on a (possibly shared) executor. the buffer is bounded - once
+ * full the oldest items are dropped, so a slow stage never holds up whoever feeds it.
+ * a stage with a capacity of 1 only ever sees the latest item.
+ * @param <T> item type
+ */
+class Stage<T> {
+    private final static Logger LOG = LogManager.getLogger(Stage.class);
+    
+    private final String name;
+    private final Executor executor;
+    private final int capacity;
+    /**
+     * handles a batch (possibly empty, see {@link #poke()}) of items, completes when done
+     */
+    private final Function<List<T>, CompletableFuture<?>> handler;
+    private final Deque<T> buffer = new ArrayDeque<>();
+    private boolean running = false; //handler currently running (or about to)
+    private boolean poked = false;
+    private long dropped = 0;
+
+    Stage(String name, Executor executor, int capacity, Function<List<T>, CompletableFuture<?>> handler) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.name = name;
+        this.executor = executor;
+        this.capacity = capacity;
+        this.handler = handler;
+    }
+
+    void offer(T item) {
+        synchronized (this) {
+            buffer.add(item);
+            if (buffer.size() > capacity) {
+                buffer.poll();
+                dropped++;
+                if (capacity > 1) {
+                    LOG.warn("{} is falling behind, dropped {} items so far", name, dropped);
+                }
+            }
+        }
+        drain();
+    }
+
+    /**
+     * runs the handler even if there's nothing buffered
+     */
+    void poke() {
+        synchronized (this) {
+            poked = true;
+        }
+        drain();
+    }
+
+    synchronized int getBacklog() {
+        return buffer.size();
+    }
+
+    private void drain() {
+        List<T> batch;
+        synchronized (this) {
+            if (running || (buffer.isEmpty() && !poked)) {
+                return;
+            }
+            running = true;
+            poked = false;
+            batch = new ArrayList<>(buffer);
+            buffer.clear();
+        }
+        CompletableFuture.supplyAsync(() -> handler.apply(batch), executor)
+                .thenCompose(handled -> handled)
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        LOG.error("{} failed", name, error);
+                    }
+                    synchronized (this) {
+                        running = false;
+                    }
+                    drain();
+                });
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.radai.anthony.notifications.Notification;
+import net.radai.anthony.publicip.PublicIp;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * remembers, across restarts, what every domain was last pointed at (and when), and which
+ * notifications have yet to be sent. changes are appended to a file (one json object per line)
+ * and synced to disk in batches, every so often. once enough changes pile up the file is
+ * rewritten to hold just the current state.
+ */
+public class StateJournal implements AutoCloseable {
+    private final static Logger LOG = LogManager.getLogger(StateJournal.class);
+    private final static ObjectMapper MAPPER = new ObjectMapper();
+    public static final long DEFAULT_SYNC_INTERVAL_MS = 1000;
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+    
+    private final File file;
+    private final int compactionThreshold; //appended entries that trigger a rewrite
+    private final ScheduledExecutorService syncer;
+    private final Object ioLock = new Object(); //held while writing to the file
+    private FileChannel channel; //guarded by ioLock
+    
+    //current state, guarded by this
+    private final Map<String, DomainState> domains = new HashMap<>();
+    private final Deque<Notification> pending = new ArrayDeque<>();
+    private final List<String> unsynced = new ArrayList<>();
+    private int entries = 0; //in the file (or about to be), since the last rewrite
+
+    StateJournal(File file, long syncIntervalMs, int compactionThreshold) throws IOException {
+        if (file == null || syncIntervalMs <= 0 || compactionThreshold < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.file = file;
+        this.compactionThreshold = compactionThreshold;
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            Files.createDirectories(dir.toPath());
+        }
+        if (file.exists()) {
+            truncateTornTail();
+            replay();
+        }
+        this.channel = open();
+        this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "state-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public StateJournal(File file) throws IOException {
+        this(file, DEFAULT_SYNC_INTERVAL_MS, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * @param domain domain
+     * @return the ip the domain was last successfully pointed at, null if unknown
+     */
+    public synchronized PublicIp getLastIp(String domain) {
+        DomainState state = domains.get(domain);
+        return state != null ? state.ip : null;
+    }
+
+    /**
+     * @param domain domain
+     * @return when the domain was last successfully updated (or found up to date), null if unknown
+     */
+    public synchronized Instant getLastUpdate(String domain) {
+        DomainState state = domains.get(domain);
+        return state != null ? state.updatedAt : null;
+    }
+
+    /**
+     * @return notifications queued (and not yet sent), oldest first
+     */
+    public synchronized List<Notification> getPending() {
+        return new ArrayList<>(pending);
+    }
+
+    public synchronized void domainUpdated(String domain, PublicIp ip, Instant when) {
+        ObjectNode entry = ipEntry(domain, ip, when);
+        apply(entry);
+        append(entry);
+    }
+
+    public synchronized void queued(Notification notification) {
+        ObjectNode entry = queuedEntry(notification);
+        apply(entry);
+        append(entry);
+    }
+
+    /**
+     * @param notification replaces the latest pending notification (which it was coalesced with)
+     */
+    public synchronized void replacedLast(Notification notification) {
+        ObjectNode entry = queuedEntry(notification);
+        entry.put("op", "replaced");
+        apply(entry);
+        append(entry);
+    }
+
+    /**
+     * @param count number of (oldest) pending notifications that were sent (or given up on)
+     */
+    public synchronized void dequeued(int count) {
+        if (count <= 0) {
+            return;
+        }
+        ObjectNode entry = MAPPER.createObjectNode();
+        entry.put("op", "dequeued");
+        entry.put("count", count);
+        apply(entry);
+        append(entry);
+    }
+
+    /**
+     * writes out (and syncs to disk) everything recorded so far. happens periodically on its own
+     * @throws IOException on failure to write
+     */
+    public void sync() throws IOException {
+        synchronized (ioLock) {
+            List<String> lines;
+            boolean rewrite;
+            int written; //unsynced entries covered by this write
+            synchronized (this) {
+                rewrite = entries >= compactionThreshold && entries > 2 * liveEntries();
+                lines = rewrite ? snapshot() : new ArrayList<>(unsynced);
+                written = unsynced.size();
+            }
+            if (rewrite) {
+                compact(lines);
+            } else if (!lines.isEmpty()) {
+                writeOrTruncate(channel, lines);
+            }
+            //only forget entries once they're safely on disk, so a failed sync is retried by the next one
+            synchronized (this) {
+                unsynced.subList(0, written).clear();
+                if (rewrite) {
+                    entries = lines.size() + unsynced.size();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        syncer.shutdownNow();
+        syncQuietly();
+        synchronized (ioLock) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("unable to close {}", file, e);
+            }
+        }
+    }
+    
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            LOG.error("unable to sync state to {}", file, e);
+        }
+    }
+    
+    private void append(ObjectNode entry) {
+        unsynced.add(entry.toString());
+        entries++;
+    }
+    
+    private void apply(JsonNode entry) {
+        switch (entry.path("op").asText()) {
+            case "ip":
+                domains.put(entry.get("domain").asText(), new DomainState(
+                        toIp(entry.path("v4").textValue(), entry.path("v6").textValue()),
+                        Instant.ofEpochMilli(entry.get("at").asLong())));
+                break;
+            case "queued":
+                pending.add(toNotification(entry));
+                break;
+            case "replaced":
+                pending.pollLast();
+                pending.add(toNotification(entry));
+                break;
+            case "dequeued":
+                for (int i = entry.get("count").asInt(); i > 0 && !pending.isEmpty(); i--) {
+                    pending.poll();
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown entry " + entry);
+        }
+    }
+    
+    /**
+     * drops whatever follows the last complete line (the tail end of a write cut short by a crash),
+     * so that entries appended from now on don't get glued onto it
+     */
+    private void truncateTornTail() throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long end = size;
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            scan:
+            while (end > 0) {
+                buffer.clear();
+                long from = Math.max(0, end - buffer.capacity());
+                buffer.limit((int) (end - from));
+                while (buffer.hasRemaining() && in.read(buffer, from + buffer.position()) >= 0) {
+                    //keep reading
+                }
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        end = from + i + 1;
+                        break scan;
+                    }
+                }
+                end = from;
+            }
+            if (end < size) {
+                LOG.warn("dropping {} trailing bytes of incomplete entry from {}", size - end, file);
+                in.truncate(end);
+                in.force(false);
+            }
+        }
+    }
+    
+    private void replay() throws IOException {
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    apply(MAPPER.readTree(line));
+                    entries++;
+                } catch (IOException | RuntimeException e) {
+                    //most likely the tail end of a write cut short by a crash
+                    LOG.warn("ignoring bad entry at {}:{}", file, lineNumber, e);
+                }
+            }
+        }
+        LOG.info("restored state of {} domains and {} pending notifications from {}", domains.size(), pending.size(), file);
+    }
+    
+    private int liveEntries() {
+        return domains.size() + pending.size();
+    }
+    
+    /**
+     * @return entries that recreate the current state
+     */
+    private List<String> snapshot() {
+        List<String> lines = new ArrayList<>(liveEntries());
+        domains.forEach((domain, state) -> lines.add(ipEntry(domain, state.ip, state.updatedAt).toString()));
+        for (Notification notification : pending) {
+            lines.add(queuedEntry(notification).toString());
+        }
+        return lines;
+    }
+    
+    private static ObjectNode ipEntry(String domain, PublicIp ip, Instant when) {
+        ObjectNode entry = MAPPER.createObjectNode();
+        entry.put("op", "ip");
+        entry.put("domain", domain);
+        entry.put("v4", ip.getV4() != null ? ip.getV4().getHostAddress() : null);
+        entry.put("v6", ip.getV6() != null ? ip.getV6().getHostAddress() : null);
+        entry.put("at", when.toEpochMilli());
+        return entry;
+    }
+    
+    private static ObjectNode queuedEntry(Notification notification) {
+        ObjectNode entry = MAPPER.createObjectNode();
+        entry.put("op", "queued");
+        entry.put("at", notification.getTimestamp().toEpochMilli());
+        entry.put("text", notification.getText());
+        if (notification.getCoalesceKey() != null) {
+            entry.put("key", notification.getCoalesceKey());
+            entry.put("count", notification.getOccurrences());
+            entry.put("first", notification.getFirstTimestamp().toEpochMilli());
+        }
+        return entry;
+    }
+    
+    private static Notification toNotification(JsonNode entry) {
+        Instant at = Instant.ofEpochMilli(entry.get("at").asLong());
+        if (!entry.has("key")) {
+            return new Notification(at, entry.get("text").asText());
+        }
+        return new Notification(at, entry.get("text").asText(), entry.get("key").asText(),
+                entry.get("count").asInt(), Instant.ofEpochMilli(entry.get("first").asLong()));
+    }
+    
+    private void compact(List<String> lines) throws IOException {
+        Path dir = file.getAbsoluteFile().getParentFile().toPath();
+        Path temp = Files.createTempFile(dir, file.getName(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                write(out, lines);
+            }
+            channel.close();
+            try {
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                //either the new file or (if the move failed) the old one, which is still intact
+                channel = open();
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        LOG.debug("compacted {} down to {} entries", file, lines.size());
+    }
+    
+    private FileChannel open() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+    
+    /**
+     * appends lines to the journal, or (on failure) as little of them as possible, so that a retry
+     * doesn't end up recording any entry twice
+     */
+    private static void writeOrTruncate(FileChannel channel, List<String> lines) throws IOException {
+        long size = channel.size();
+        try {
+            write(channel, lines);
+        } catch (IOException e) {
+            try {
+                channel.truncate(size);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+    
+    private static void write(FileChannel channel, List<String> lines) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+    
+    private static PublicIp toIp(String v4, String v6) {
+        try {
+            //literals, so no actual lookups
+            return new PublicIp(
+                    v4 != null ? (Inet4Address) InetAddress.getByName(v4) : null,
+                    v6 != null ? (Inet6Address) InetAddress.getByName(v6) : null
+            );
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+    
+    private static class DomainState {
+        private final PublicIp ip;
+        private final Instant updatedAt;
+
+        private DomainState(PublicIp ip, Instant updatedAt) {
+            this.ip = ip;
+            this.updatedAt = updatedAt;
+        }
+    }
+}
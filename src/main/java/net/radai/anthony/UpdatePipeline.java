@@ -0,0 +1,71 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import net.radai.anthony.notifications.Notification;
+import net.radai.anthony.publicip.PublicIp;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * keeps a set of domains (see {@link DnsUpdateScheduler}) pointed at the public IP, asynchronously.
+ * detected IPs offered while a previous update is still running are conflated - only the latest
+ * one is acted upon once the update completes. any number of pipelines can share an executor.
+ */
+public class UpdatePipeline {
+    private final DnsUpdateScheduler scheduler;
+    private final Clock clock;
+    private final Consumer<Notification> notifications;
+    private final Stage<PublicIp> updates;
+
+    /**
+     * @param name for logging
+     * @param scheduler updates the domains of this pipeline
+     * @param executor to run on
+     * @param clock for notification timestamps
+     * @param notifications receives notifications about updates
+     */
+    public UpdatePipeline(String name, DnsUpdateScheduler scheduler, Executor executor, Clock clock, Consumer<Notification> notifications) {
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.notifications = notifications;
+        this.updates = new Stage<>(name, executor, 1, this::update);
+    }
+
+    /**
+     * @param ip currently detected public IP (not null)
+     */
+    public void offer(PublicIp ip) {
+        if (ip == null) {
+            throw new IllegalArgumentException();
+        }
+        updates.offer(ip);
+    }
+    
+    private CompletableFuture<?> update(List<PublicIp> latest) {
+        if (latest.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        //domains already pointing at the ip are skipped, so offering the same ip again is cheap
+        PublicIp ip = latest.get(latest.size() - 1);
+        return scheduler.updateAsync(ip, clock.instant()).thenAccept(results -> results.forEach(notifications));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * access to virtual threads, which need java 21+. this is the version for older JVMs -
+ * when built on java 21 the (multi-release) jar also carries one that actually works.
+ */
+public final class VirtualThreads {
+    
+    private VirtualThreads() {
+        //utility class
+    }
+
+    public static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * @param namePrefix thread name prefix
+     * @return an executor that runs every task on a (pooled, daemon) platform thread of its own,
+     * the closest thing to a virtual thread per task available here
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        AtomicInteger counter = new AtomicInteger(1);
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import java.util.Properties;
+
+/**
+ * settings for how long (and where) DNS updaters may remember the zone records
+ * they last saw, instead of fetching them all over again on every update
+ */
+public class ZoneCacheConfig {
+    public static final long DEFAULT_TTL_MS = 3600000; //1 hour
+    
+    private final long ttlMs; //0 to always fetch
+    private final String snapshotDir; //null to keep snapshots only in memory
+    private final boolean verify; //check snapshots against the authoritative name servers before trusting them
+
+    public ZoneCacheConfig(long ttlMs, String snapshotDir, boolean verify) {
+        if (ttlMs < 0) {
+            throw new IllegalArgumentException("zoneCacheTtlMs must not be negative");
+        }
+        if (snapshotDir != null && snapshotDir.isEmpty()) {
+            throw new IllegalArgumentException("zoneCacheDir must not be empty");
+        }
+        this.ttlMs = ttlMs;
+        this.snapshotDir = snapshotDir;
+        this.verify = verify;
+    }
+
+    public ZoneCacheConfig() {
+        this(DEFAULT_TTL_MS, null, true);
+    }
+
+    public static ZoneCacheConfig deserialize(Properties from) {
+        try {
+            return new ZoneCacheConfig(
+                    Long.parseLong(from.getProperty("zoneCacheTtlMs", Long.toString(DEFAULT_TTL_MS))),
+                    from.getProperty("zoneCacheDir"),
+                    Boolean.parseBoolean(from.getProperty("zoneCacheVerify", "true"))
+            );
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    public void serialize(Properties into) {
+        into.setProperty("zoneCacheTtlMs", Long.toString(ttlMs));
+        if (snapshotDir != null) {
+            into.setProperty("zoneCacheDir", snapshotDir);
+        }
+        into.setProperty("zoneCacheVerify", Boolean.toString(verify));
+    }
+
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    public String getSnapshotDir() {
+        return snapshotDir;
+    }
+
+    public boolean isVerify() {
+        return verify;
+    }
+}
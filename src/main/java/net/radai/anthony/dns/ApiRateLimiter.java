@@ -0,0 +1,209 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.dns;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * paces calls to a (DNS provider) api so they stay within the quota of a single api credential.
+ * a token bucket - calls beyond what the bucket allows are queued (in order) and dispatched as
+ * tokens become available. identical calls queued at the same time are coalesced into one.
+ */
+public class ApiRateLimiter {
+    private final static Logger LOG = LogManager.getLogger(ApiRateLimiter.class);
+    /**
+     * dispatches queued calls. calls themselves are expected to be async, so one thread is plenty
+     */
+    private static final ScheduledExecutorService DISPATCHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "api-rate-limiter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final String name;
+    private final int capacity;
+    private final double tokensPerNano;
+    private final Deque<Call<?>> queue = new ArrayDeque<>();
+    private final Map<String, Call<?>> queuedByKey = new HashMap<>();
+    private double tokens;
+    private long lastRefill;
+    private long pausedUntil;
+    private boolean dispatchScheduled = false;
+
+    /**
+     * @param name for logging
+     * @param capacity max calls that can be made in a burst
+     * @param refill how many tokens are added back every period
+     * @param periodMs period in millis
+     */
+    public ApiRateLimiter(String name, int capacity, int refill, long periodMs) {
+        if (capacity < 1 || refill < 1 || periodMs <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.tokensPerNano = refill / (double) TimeUnit.MILLISECONDS.toNanos(periodMs);
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+        this.pausedUntil = lastRefill;
+    }
+
+    /**
+     * godaddy allows 60 requests per minute per api key. a burst of 10 followed by a steady 50/minute
+     * never exceeds 60 in any 1 minute window
+     * @param name for logging
+     * @return a limiter for a single godaddy api key
+     */
+    public static ApiRateLimiter godaddy(String name) {
+        return new ApiRateLimiter(name, 10, 50, TimeUnit.MINUTES.toMillis(1));
+    }
+
+    /**
+     * @param coalesceKey calls submitted with the same (non null) key while a previous one is still
+     *                    queued share its result instead of being made again. only meant for reads.
+     * @param call starts the actual (async) call once allowed
+     * @param <T> result type
+     * @return the eventual result of the call
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(String coalesceKey, Supplier<CompletableFuture<T>> call) {
+        Call<T> pending;
+        List<Call<?>> ready;
+        synchronized (this) {
+            if (coalesceKey != null) {
+                Call<?> queued = queuedByKey.get(coalesceKey);
+                if (queued != null) {
+                    LOG.debug("{}: coalescing {} with a call already queued", name, coalesceKey);
+                    return (CompletableFuture<T>) queued.result;
+                }
+            }
+            pending = new Call<>(coalesceKey, call);
+            queue.add(pending);
+            if (coalesceKey != null) {
+                queuedByKey.put(coalesceKey, pending);
+            }
+            ready = dispatch();
+        }
+        start(ready);
+        return pending.result;
+    }
+
+    /**
+     * holds off on any further calls (say, because the api responded with a 429)
+     * @param delayMs how long to wait before the next call
+     */
+    public synchronized void backOff(long delayMs) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+        if (until - pausedUntil > 0) {
+            pausedUntil = until;
+        }
+        //whatever tokens we thought we had were evidently wrong. allow a single call once the wait is over
+        tokens = 1;
+        lastRefill = until;
+    }
+
+    /**
+     * @return number of calls waiting their turn
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return calls to start (not under lock - starting a call may well involve resolving the api host)
+     */
+    private List<Call<?>> dispatch() {
+        List<Call<?>> ready = new ArrayList<>();
+        long now = System.nanoTime();
+        if (now - lastRefill > 0) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+        while (!queue.isEmpty() && tokens >= 1 && now - pausedUntil >= 0) {
+            Call<?> call = queue.poll();
+            if (call.coalesceKey != null) {
+                queuedByKey.remove(call.coalesceKey);
+            }
+            tokens -= 1;
+            ready.add(call);
+        }
+        if (queue.isEmpty() || dispatchScheduled) {
+            return ready;
+        }
+        long waitNanos = Math.max(pausedUntil - now, (long) Math.ceil((1 - tokens) / tokensPerNano));
+        LOG.debug("{}: {} calls queued, next one in {} millis", name, queue.size(), TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        dispatchScheduled = true;
+        DISPATCHER.schedule(() -> {
+            List<Call<?>> scheduled;
+            synchronized (this) {
+                dispatchScheduled = false;
+                scheduled = dispatch();
+            }
+            start(scheduled);
+        }, Math.max(waitNanos, 1), TimeUnit.NANOSECONDS);
+        return ready;
+    }
+    
+    private static void start(List<Call<?>> calls) {
+        for (Call<?> call : calls) {
+            call.start();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static class Call<T> {
+        private final String coalesceKey;
+        private final Supplier<CompletableFuture<T>> call;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private Call(String coalesceKey, Supplier<CompletableFuture<T>> call) {
+            this.coalesceKey = coalesceKey;
+            this.call = call;
+        }
+        
+        private void start() {
+            try {
+                call.get().whenComplete((value, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.dns;
+
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * remembers DNS answers (by name and record type) for as long as their TTL allows.
+ * "no such name/record" answers are remembered too, for the TTL given by the zone's SOA record.
+ * bounded - the least recently used answers are evicted first.
+ */
+public class DnsAnswerCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    /**
+     * no answer is kept longer than this, whatever its TTL
+     */
+    public static final long MAX_TTL_SEC = 86400;
+    private static final DnsAnswerCache SHARED = new DnsAnswerCache(DEFAULT_MAX_ENTRIES, Clock.systemUTC());
+    
+    private final int maxEntries;
+    private final Clock clock;
+    private final LinkedHashMap<String, CachedAnswer> entries;
+
+    public DnsAnswerCache(int maxEntries, Clock clock) {
+        if (maxEntries < 1 || clock == null) {
+            throw new IllegalArgumentException();
+        }
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+        //access order, so the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<String, CachedAnswer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedAnswer> eldest) {
+                return size() > DnsAnswerCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the cache shared by all resolvers that dont have one of their own
+     */
+    public static DnsAnswerCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param name name queried
+     * @param type record type queried
+     * @return the answer section last seen for the query (empty for a negative answer),
+     * or null if there is none or it has expired
+     */
+    public synchronized Record[] get(Name name, int type) {
+        String key = key(name, type);
+        CachedAnswer entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (clock.millis() >= entry.expiresAt) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.answers.clone();
+    }
+
+    /**
+     * remembers the given response (if cacheable) for the given query
+     * @param name name queried
+     * @param type record type queried
+     * @param response response received
+     */
+    public void put(Name name, int type, Message response) {
+        long ttlSec = ttlOf(response);
+        if (ttlSec <= 0) {
+            return;
+        }
+        CachedAnswer entry = new CachedAnswer(response.getSectionArray(Section.ANSWER), clock.millis() + ttlSec * 1000);
+        synchronized (this) {
+            entries.put(key(name, type), entry);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    /**
+     * @return for how long (in seconds) the response may be cached, 0 if not at all
+     */
+    static long ttlOf(Message response) {
+        int rcode = response.getRcode();
+        if (rcode != Rcode.NOERROR && rcode != Rcode.NXDOMAIN) {
+            return 0; //server trouble, might be gone by the next query
+        }
+        Record[] answers = response.getSectionArray(Section.ANSWER);
+        long ttl = MAX_TTL_SEC;
+        if (answers.length > 0) {
+            //the whole answer (including any CNAMEs on the way) is only good for as long as its shortest lived part
+            for (Record answer : answers) {
+                ttl = Math.min(ttl, answer.getTTL());
+            }
+            return ttl;
+        }
+        //negative answer - per rfc 2308 the SOA's own TTL or its minimum field, whichever is lower
+        for (Record authority : response.getSectionArray(Section.AUTHORITY)) {
+            if (authority.getType() == Type.SOA) {
+                SOARecord soa = (SOARecord) authority;
+                return Math.min(ttl, Math.min(soa.getTTL(), soa.getMinimum()));
+            }
+        }
+        return 0; //no SOA, no telling how long the name will stay missing
+    }
+    
+    private static String key(Name name, int type) {
+        return name.toString().toLowerCase() + " " + type;
+    }
+    
+    private static class CachedAnswer {
+        private final Record[] answers;
+        private final long expiresAt; //epoch millis
+
+        private CachedAnswer(Record[] answers, long expiresAt) {
+            this.answers = answers;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -17,74 +17,337 @@
 package net.radai.anthony.dns;
 
 import net.radai.anthony.publicip.PublicIp;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.xbill.DNS.AAAARecord;
 import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
 import org.xbill.DNS.ExtendedResolver;
 import org.xbill.DNS.Lookup;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.NSRecord;
 import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
 import org.xbill.DNS.Record;
 import org.xbill.DNS.Resolver;
+import org.xbill.DNS.Section;
 import org.xbill.DNS.SimpleResolver;
 import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 
+import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DnsJavaResolver implements DnsResolver {
+    private final static Logger LOG = LogManager.getLogger(DnsJavaResolver.class);
+    public static final int DEFAULT_MAX_IN_FLIGHT = 32;
+    public static final long DEFAULT_TIMEOUT_MS = 5000;
+    public static final int DEFAULT_RETRIES = 2;
+    /**
+     * runs the (blocking) queries of all resolvers. dnsjava's own async api spawns a thread per query,
+     * this caps them instead (idle ones go away)
+     */
+    private static final ExecutorService QUERY_EXECUTOR = newQueryExecutor(DEFAULT_MAX_IN_FLIGHT);
     
     private final List<String> dnsServers;
+    private final int port;
+    private final int maxInFlight; //max concurrent queries (and so sockets) during resolveAll
+    private final long timeoutMs; //per query (attempt)
+    private final int retries; //per query, after timeouts and other errors
+    private final DnsAnswerCache cache; //null for none
+    private final boolean bypassCache; //always query, only store fresh answers into the cache
+    /**
+     * built on first use (building it involves resolving the servers, if given by name) and reused from then on
+     */
+    private volatile Resolver resolver = null;
 
-    public DnsJavaResolver(List<String> dnsServers) throws IllegalStateException {
+    DnsJavaResolver(
+            List<String> dnsServers,
+            int port,
+            int maxInFlight,
+            long timeoutMs,
+            int retries,
+            DnsAnswerCache cache,
+            boolean bypassCache
+    ) {
+        if (maxInFlight < 2 || timeoutMs <= 0 || retries < 0) {
+            throw new IllegalArgumentException();
+        }
         this.dnsServers = new ArrayList<>(dnsServers);
+        this.port = port;
+        this.maxInFlight = maxInFlight;
+        this.timeoutMs = timeoutMs;
+        this.retries = retries;
+        this.cache = cache;
+        this.bypassCache = bypassCache;
+    }
+
+    DnsJavaResolver(List<String> dnsServers, int port, int maxInFlight, long timeoutMs, int retries) {
+        this(dnsServers, port, maxInFlight, timeoutMs, retries, null, false);
+    }
+
+    DnsJavaResolver(List<String> dnsServers, int port) {
+        this(dnsServers, port, DEFAULT_MAX_IN_FLIGHT, DEFAULT_TIMEOUT_MS, DEFAULT_RETRIES);
+    }
+
+    /**
+     * @param dnsServers servers to query
+     * @param cache answer cache to use, null for none
+     */
+    public DnsJavaResolver(List<String> dnsServers, DnsAnswerCache cache) {
+        this(dnsServers, SimpleResolver.DEFAULT_PORT, DEFAULT_MAX_IN_FLIGHT, DEFAULT_TIMEOUT_MS, DEFAULT_RETRIES, cache, false);
+    }
+
+    /**
+     * a resolver using the {@link DnsAnswerCache#shared() shared} answer cache
+     * @param dnsServers servers to query
+     */
+    public DnsJavaResolver(List<String> dnsServers) throws IllegalStateException {
+        this(dnsServers, DnsAnswerCache.shared());
+    }
+
+    /**
+     * @return a resolver querying the same servers, but never answering from the cache - for when
+     * only the current answer will do (like when checking whether an update took). the answers it gets
+     * still go into the cache, so other resolvers sharing it see them too
+     */
+    public DnsJavaResolver bypassingCache() {
+        return new DnsJavaResolver(dnsServers, port, maxInFlight, timeoutMs, retries, cache, true);
+    }
+
+    /**
+     * @param domain a domain
+     * @return a resolver that queries the name servers authoritative for the given domain directly,
+     * bypassing any cached answers, so it sees changes as soon as they are published.
+     * @throws UnknownHostException if the domain's name servers cannot be found
+     */
+    public static DnsJavaResolver authoritativeFor(String domain) throws UnknownHostException {
+        return new DnsJavaResolver(findNameServers(domain)).bypassingCache();
+    }
+
+    /**
+     * @param domain a domain
+     * @return the names of the name servers authoritative for the given domain
+     * @throws UnknownHostException if the domain's name servers cannot be found
+     */
+    public static List<String> findNameServers(String domain) throws UnknownHostException {
+        Name name = toName(domain);
+        Record[] nsRecords = new Lookup(name, Type.NS).run();
+        if (nsRecords == null || nsRecords.length == 0) {
+            throw new UnknownHostException("unable to find name servers for " + domain);
+        }
+        List<String> servers = new ArrayList<>();
+        for (Record nsRecord : nsRecords) {
+            servers.add(((NSRecord) nsRecord).getTarget().toString());
+        }
+        return servers;
     }
 
     @Override
-    public PublicIp resolve(String hostname) throws UnknownHostException {
+    public PublicIp resolve(String hostname) throws IOException {
+        try {
+            return resolveAsync(hostname).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted resolving " + hostname, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * queries for A and AAAA records concurrently
+     */
+    @Override
+    public CompletableFuture<PublicIp> resolveAsync(String hostname) {
         Name name;
+        Resolver resolver;
         try {
-            name = Name.fromString(hostname);
-        } catch (TextParseException e) {
-            throw new IllegalArgumentException("bad argument " + hostname, e);
+            name = toName(hostname);
+            //the following will throw UnknownHostException if we're offline
+            //or the dns servers arent resolvable.
+            resolver = getResolver();
+        } catch (IllegalArgumentException | UnknownHostException e) {
+            CompletableFuture<PublicIp> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        CompletableFuture<Record[]> v4Lookup = query(resolver, name, Type.A, retries);
+        CompletableFuture<Record[]> v6Lookup = query(resolver, name, Type.AAAA, retries);
+        return v4Lookup.thenCombine(v6Lookup, (v4Records, v6Records) -> {
+            Inet4Address v4Addr = null;
+            Inet6Address v6Addr = null;
+            //the answers might include CNAMEs (on the way to the actual address)
+            for (Record v4Rec : v4Records) {
+                if (v4Rec instanceof ARecord) {
+                    v4Addr = (Inet4Address) ((ARecord) v4Rec).getAddress();
+                }
+            }
+            for (Record v6Rec : v6Records) {
+                if (v6Rec instanceof AAAARecord) {
+                    v6Addr = (Inet6Address) ((AAAARecord) v6Rec).getAddress();
+                }
+            }
+            if (v4Addr != null || v6Addr != null) {
+                return new PublicIp(v4Addr, v6Addr);
+            }
+            return null;
+        });
+    }
+    
+    /**
+     * resolves the names concurrently, keeping no more than maxInFlight queries outstanding at once
+     */
+    @Override
+    public CompletableFuture<Map<String, PublicIp>> resolveAllAsync(Collection<String> hostnames) {
+        List<String> unique = new ArrayList<>(new LinkedHashSet<>(hostnames));
+        Queue<String> pending = new ConcurrentLinkedQueue<>(unique);
+        //no nulls allowed in a ConcurrentHashMap, so names that dont exist are Optional.empty()
+        Map<String, Optional<PublicIp>> answers = new ConcurrentHashMap<>();
+        //every name has 2 queries (A and AAAA) in flight at once
+        int numWorkers = Math.min(maxInFlight / 2, unique.size());
+        List<CompletableFuture<Void>> workers = new ArrayList<>(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            workers.add(drain(pending, answers));
+        }
+        return CompletableFuture.allOf(workers.toArray(new CompletableFuture[0])).thenApply(nothing -> {
+            Map<String, PublicIp> results = new LinkedHashMap<>();
+            for (String hostname : unique) {
+                Optional<PublicIp> answer = answers.get(hostname);
+                if (answer != null) {
+                    results.put(hostname, answer.orElse(null));
+                }
+            }
+            return results;
+        });
+    }
+    
+    private CompletableFuture<Void> drain(Queue<String> pending, Map<String, Optional<PublicIp>> answers) {
+        String hostname = pending.poll();
+        if (hostname == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return resolveAsync(hostname)
+                .handle((ip, error) -> {
+                    if (error == null) {
+                        answers.put(hostname, Optional.ofNullable(ip));
+                    } else {
+                        LOG.debug("unable to resolve {}", hostname, error);
+                    }
+                    return null;
+                })
+                .thenCompose(nothing -> drain(pending, answers));
+    }
+    
+    private Resolver getResolver() throws UnknownHostException {
+        Resolver existing = resolver;
+        if (existing != null) {
+            return existing;
         }
-        
-        //the following will throw UnknownHostException if we're offline
-        //or the dns servers arent resolvable.
         Resolver[] resolvers = new Resolver[dnsServers.size()];
         for (int i = 0; i < dnsServers.size(); i++) {
             resolvers[i] = new SimpleResolver(dnsServers.get(i));
+            resolvers[i].setPort(port);
         }
-        ExtendedResolver resolver = new ExtendedResolver(resolvers);
+        //concurrent 1st calls might each build one, which is harmless
+        ExtendedResolver built = new ExtendedResolver(resolvers);
+        built.setTimeout((int) (timeoutMs / 1000), (int) (timeoutMs % 1000));
+        built.setRetries(1); //a single attempt per server, retries are done (per query) below
+        resolver = built;
+        return built;
+    }
 
-        Inet4Address v4Addr = null;
-        Inet6Address v6Addr = null;
-        
-        Lookup v4Lookup = new Lookup(name, Type.A);
-        v4Lookup.setResolver(resolver);
-        Record[] v4Records = v4Lookup.run();
-        if (v4Records != null) {
-            for (Record v4Rec : v4Records) {
-                ARecord rec = (ARecord) v4Rec;
-                v4Addr = (Inet4Address) rec.getAddress();
+    /**
+     * @return answer section, empty if the name (or record type) doesnt exist
+     */
+    private CompletableFuture<Record[]> query(Resolver resolver, Name name, int type, int retries) {
+        if (cache != null && !bypassCache) {
+            Record[] cached = cache.get(name, type);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
             }
         }
-        
-        Lookup v6Lookup = new Lookup(name, Type.AAAA);
-        v6Lookup.setResolver(resolver);
-        Record[] v6Records = v6Lookup.run();
-        if (v6Records != null) {
-            for (Record v6Rec : v6Records) {
-                AAAARecord rec = (AAAARecord) v6Rec;
-                v6Addr = (Inet6Address) rec.getAddress();
+        Message query = Message.newQuery(Record.newRecord(name, type, DClass.IN));
+        return CompletableFuture.supplyAsync(() -> {
+            Message response = send(resolver, query, retries);
+            int rcode = response.getRcode();
+            if (rcode != Rcode.NOERROR && rcode != Rcode.NXDOMAIN) {
+                throw new CompletionException(new IOException(
+                        "querying " + name + " (" + Type.string(type) + ") returned " + Rcode.string(rcode)));
+            }
+            if (cache != null) {
+                cache.put(name, type, response);
+            }
+            return response.getSectionArray(Section.ANSWER);
+        }, QUERY_EXECUTOR);
+    }
+    
+    /**
+     * blocks for the response, retrying after timeouts and other errors
+     */
+    private static Message send(Resolver resolver, Message query, int retries) {
+        IOException failure = null;
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            try {
+                return resolver.send(query);
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
             }
         }
-        
-        if (v4Addr != null || v6Addr != null) {
-            return new PublicIp(v4Addr, v6Addr);
+        throw new CompletionException(failure);
+    }
+    
+    private static ExecutorService newQueryExecutor(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "dns-query-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+    
+    private static Name toName(String hostname) {
+        try {
+            //always absolute - no search domains
+            return Name.fromString(hostname, Name.root);
+        } catch (TextParseException e) {
+            throw new IllegalArgumentException("bad argument " + hostname, e);
         }
-        return null;
     }
 }
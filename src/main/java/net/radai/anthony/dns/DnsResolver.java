@@ -19,7 +19,64 @@ package net.radai.anthony.dns;
 import net.radai.anthony.publicip.PublicIp;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 public interface DnsResolver {
     PublicIp resolve(String hostname) throws IOException;
+
+    /**
+     * same as {@link #resolve(String)}, without waiting for the answer.
+     * this default simply blocks the calling thread.
+     * @param hostname name to resolve
+     * @return completes with the addresses found (null if none), or with whatever went wrong
+     */
+    default CompletableFuture<PublicIp> resolveAsync(String hostname) {
+        CompletableFuture<PublicIp> result = new CompletableFuture<>();
+        try {
+            result.complete(resolve(hostname));
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * resolves many names in one go. blocks until all of them are done.
+     * @param hostnames names to resolve
+     * @return name --&gt; addresses found (null if none), in the order given. names that could not be
+     * resolved (after any retries) are left out
+     * @throws IOException if interrupted
+     */
+    default Map<String, PublicIp> resolveAll(Collection<String> hostnames) throws IOException {
+        try {
+            return resolveAllAsync(hostnames).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted resolving " + hostnames.size() + " names", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e); //should never happen, failures are left out
+        }
+    }
+
+    /**
+     * same as {@link #resolveAll(Collection)}, without waiting for the answers.
+     * this default resolves one name after the other.
+     * @param hostnames names to resolve
+     * @return completes with name --&gt; addresses found (null if none) once all names are done
+     */
+    default CompletableFuture<Map<String, PublicIp>> resolveAllAsync(Collection<String> hostnames) {
+        Map<String, PublicIp> results = new LinkedHashMap<>();
+        for (String hostname : hostnames) {
+            try {
+                results.put(hostname, resolve(hostname));
+            } catch (Exception ignored) {
+                //left out
+            }
+        }
+        return CompletableFuture.completedFuture(results);
+    }
 }
@@ -18,6 +18,8 @@ package net.radai.anthony.dns;
 
 import net.radai.anthony.publicip.PublicIp;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface DnsUpdater {
     /**
      * points the given domain to the give public address.
@@ -30,4 +32,23 @@ public interface DnsUpdater {
      * @throws Exception if anything goes wrong
      */
     boolean update(String domain, PublicIp addr, boolean updateWildcardAsWell) throws Exception;
+
+    /**
+     * same as {@link #update(String, PublicIp, boolean)}, without waiting around for the result.
+     * implementations with an async api of their own should override this (and make {@link #update}
+     * wait on it), this default simply blocks the calling thread.
+     * @param domain the domain to update
+     * @param addr the new public IP addr(s) to point the domain to
+     * @param updateWildcardAsWell true to update '*' entries, otherwise only '@'
+     * @return completes with true if registration actually changed upstream, or with whatever went wrong
+     */
+    default CompletableFuture<Boolean> updateAsync(String domain, PublicIp addr, boolean updateWildcardAsWell) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        try {
+            result.complete(update(domain, addr, updateWildcardAsWell));
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
 }
@@ -16,94 +16,534 @@
 
 package net.radai.anthony.dns;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import net.radai.anthony.publicip.PublicIp;
+import net.radai.anthony.tracing.Span;
+import net.radai.anthony.tracing.Tracing;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.asynchttpclient.AsyncHttpClient;
-import org.asynchttpclient.AsyncHttpClientConfig;
 import org.asynchttpclient.DefaultAsyncHttpClient;
 import org.asynchttpclient.DefaultAsyncHttpClientConfig;
 import org.asynchttpclient.Request;
 import org.asynchttpclient.RequestBuilder;
 import org.asynchttpclient.Response;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 
 /**
  * see https://developer.godaddy.com/doc for api docs
  */
 public class GoDaddyDnsUpdater implements DnsUpdater {
+    private final static Logger LOG = LogManager.getLogger(GoDaddyDnsUpdater.class);
+    private static final String API_URL = "https://api.godaddy.com/v1/domains/";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    //readers and writers are immutable (so thread safe) and hold on to their (de)serializers
+    private static final ObjectReader RECORD_READER = MAPPER.readerFor(Record.class);
+    private static final ObjectWriter RECORDS_WRITER = MAPPER.writerFor(new TypeReference<List<Record>>() {});
+    private static final ObjectReader SNAPSHOT_READER = MAPPER.readerFor(Snapshot.class);
+    private static final ObjectWriter SNAPSHOT_WRITER = MAPPER.writerFor(Snapshot.class);
+    private static final int MAX_RATE_LIMIT_RETRIES = 3;
+    private static final long DEFAULT_RETRY_AFTER_MS = 60000; //quotas are per minute
+    
     private final String key;
     private final String secret;
     private final AsyncHttpClient client;
+    private final String apiUrl;
+    private final ApiRateLimiter limiter;
+    private final Clock clock;
+    private final long cacheTtlMs; //0 to never cache zone records
+    private final File snapshotDir; //null to only cache zone records in memory
+    private final Function<String, DnsResolver> verifierFactory; //null to trust snapshots until they expire
+    private final Executor blockingExecutor; //for finding name servers, which blocks
+    private final Map<String, DnsResolver> verifiers = new ConcurrentHashMap<>();
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
 
-    public GoDaddyDnsUpdater(String key, String secret) {
+    GoDaddyDnsUpdater(
+            AsyncHttpClient client,
+            String apiUrl,
+            String key,
+            String secret,
+            ApiRateLimiter limiter,
+            Clock clock,
+            long cacheTtlMs,
+            File snapshotDir,
+            Function<String, DnsResolver> verifierFactory,
+            Executor blockingExecutor
+    ) {
+        if (cacheTtlMs < 0) {
+            throw new IllegalArgumentException("cacheTtlMs must not be negative");
+        }
         this.key = key;
         this.secret = secret;
-        DefaultAsyncHttpClientConfig.Builder configBuilder = new DefaultAsyncHttpClientConfig.Builder();
-        AsyncHttpClientConfig config = configBuilder.build();
-        this.client = new DefaultAsyncHttpClient(config);
+        this.client = client;
+        this.apiUrl = apiUrl;
+        this.limiter = limiter;
+        this.clock = clock;
+        this.cacheTtlMs = cacheTtlMs;
+        this.snapshotDir = snapshotDir;
+        this.verifierFactory = verifierFactory;
+        this.blockingExecutor = blockingExecutor;
+    }
+
+    GoDaddyDnsUpdater(AsyncHttpClient client, String apiUrl, String key, String secret) {
+        this(client, apiUrl, key, secret, ApiRateLimiter.godaddy(key), Clock.systemUTC(), 0, null, null, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param client http client to use (not closed by this updater)
+     * @param key godaddy api key
+     * @param secret godaddy api secret
+     * @param limiter paces calls made with the given key. should be shared by all updaters using the same key
+     * @param cacheTtlMs how long to remember a zone's records between updates, 0 to always fetch them
+     * @param snapshotDir where to also keep remembered records so they survive restarts, or null
+     * @param verify true to check remembered records against the zone's own name servers before using them
+     * @param blockingExecutor runs the (blocking) name server lookups involved in verification
+     */
+    public GoDaddyDnsUpdater(
+            AsyncHttpClient client,
+            String key,
+            String secret,
+            ApiRateLimiter limiter,
+            long cacheTtlMs,
+            File snapshotDir,
+            boolean verify,
+            Executor blockingExecutor
+    ) {
+        this(client, API_URL, key, secret, limiter, Clock.systemUTC(), cacheTtlMs, snapshotDir,
+                verify ? GoDaddyDnsUpdater::authoritativeResolver : null, blockingExecutor);
+    }
+
+    public GoDaddyDnsUpdater(AsyncHttpClient client, String key, String secret) {
+        this(client, API_URL, key, secret);
+    }
+
+    public GoDaddyDnsUpdater(String key, String secret) {
+        this(new DefaultAsyncHttpClient(new DefaultAsyncHttpClientConfig.Builder().build()), key, secret);
     }
 
     @Override
     public boolean update(String domain, PublicIp addr, boolean updateWildcardAsWell) throws Exception {
-        List<Record> beforeRecords = fetchAllRecords(domain);
-        List<Record> sansRoots = filterOutRoots(beforeRecords, updateWildcardAsWell);
+        try {
+            return updateAsync(domain, addr, updateWildcardAsWell).get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * only writes the A/AAAA records that are actually out of date, one type+name group at a time,
+     * instead of rewriting the whole zone (which would also clobber any concurrent edits).
+     * the whole zone is only rewritten when records need to be removed altogether.
+     * zone records are only fetched if there's no recent (and verified) snapshot of them.
+     */
+    @Override
+    public CompletableFuture<Boolean> updateAsync(String domain, PublicIp addr, boolean updateWildcardAsWell) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        update(domain, addr, updateWildcardAsWell, true).whenComplete((changed, error) -> {
+            if (error != null) {
+                //no idea what state the zone is in now
+                forget(domain);
+                result.completeExceptionally(unwrap(error));
+            } else {
+                result.complete(changed);
+            }
+        });
+        return result;
+    }
+    
+    private CompletableFuture<Boolean> update(String domain, PublicIp addr, boolean updateWildcardAsWell, boolean allowSnapshot) {
+        CompletableFuture<Snapshot> recalled = allowSnapshot ? recallAsync(domain) : CompletableFuture.completedFuture(null);
+        return recalled.thenCompose(snapshot -> {
+            if (snapshot != null) {
+                return CompletableFuture.completedFuture(snapshot);
+            }
+            return fetchAllRecords(domain).thenApply(records -> new Snapshot(clock.millis(), records));
+        }).thenCompose(snapshot -> update(domain, addr, updateWildcardAsWell, snapshot));
+    }
+    
+    private CompletableFuture<Boolean> update(String domain, PublicIp addr, boolean updateWildcardAsWell, Snapshot snapshot) {
+        List<Record> beforeRecords = snapshot.records;
         List<Record> newRecords = buildRecords(addr, updateWildcardAsWell);
-        List<Record> afterRecords = new ArrayList<>();
-        
-        afterRecords.addAll(sansRoots);
-        afterRecords.addAll(newRecords);
+        Map<String, List<Record>> current;
+        try {
+            current = group(normalize(filterRoots(beforeRecords, updateWildcardAsWell, true)));
+        } catch (UnknownHostException e) {
+            return failed(e);
+        }
+        Map<String, List<Record>> desired = group(newRecords);
         
-        setRecords(domain, afterRecords);
+        if (!desired.keySet().containsAll(current.keySet())) {
+            if (snapshot.remembered) {
+                //dont clobber the whole zone based on what might be an outdated picture of it
+                return update(domain, addr, updateWildcardAsWell, false);
+            }
+            //some records need to go away altogether (say, AAAA records after losing our v6 address).
+            //setting a type+name group to an empty list isnt allowed, so rewrite the whole zone
+            List<Record> afterRecords = new ArrayList<>();
+            afterRecords.addAll(filterRoots(beforeRecords, updateWildcardAsWell, false));
+            afterRecords.addAll(newRecords);
+            return setRecords(domain, afterRecords).thenApply(nothing -> {
+                remember(domain, new Snapshot(snapshot.fetchedAt, afterRecords));
+                return true;
+            });
+        }
         
-        //plain equals() would also care about order
-        return beforeRecords.size() == afterRecords.size() && beforeRecords.containsAll(afterRecords);
+        List<Record> afterRecords = new ArrayList<>(beforeRecords);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (Map.Entry<String, List<Record>> entry : desired.entrySet()) {
+            List<Record> wanted = entry.getValue();
+            List<Record> existing = current.getOrDefault(entry.getKey(), Collections.emptyList());
+            //plain equals() would also care about order
+            if (existing.size() == wanted.size() && existing.containsAll(wanted)) {
+                continue;
+            }
+            Record first = wanted.get(0);
+            //different type+name groups are independent of each other
+            writes.add(setRecords(domain, first.type, first.name, wanted));
+            afterRecords.removeIf(record -> first.type.equals(record.type) && first.name.equals(record.name));
+            afterRecords.addAll(wanted);
+        }
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).thenApply(nothing -> {
+            //what we wrote is as good as what we'd see if we fetched it, so the snapshot doesnt get any younger
+            remember(domain, new Snapshot(snapshot.fetchedAt, afterRecords));
+            return !writes.isEmpty();
+        });
+    }
+
+    /**
+     * @return (completes with) a recent enough snapshot of the zone, that the zone's name servers agree with, or null
+     */
+    private CompletableFuture<Snapshot> recallAsync(String domain) {
+        if (cacheTtlMs == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Snapshot snapshot = snapshots.computeIfAbsent(domain, this::load);
+        if (snapshot == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long age = clock.millis() - snapshot.fetchedAt;
+        if (age >= cacheTtlMs || age < 0) {
+            LOG.debug("snapshot of {} is {} millis old, refetching", domain, age);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (verifierFactory == null) {
+            snapshot.remembered = true;
+            return CompletableFuture.completedFuture(snapshot);
+        }
+        DnsResolver verifier = verifiers.get(domain);
+        CompletableFuture<DnsResolver> verifierFuture = verifier != null
+                ? CompletableFuture.completedFuture(verifier)
+                //finding the zone's name servers involves (blocking) DNS queries
+                : CompletableFuture.supplyAsync(() -> verifiers.computeIfAbsent(domain, verifierFactory), blockingExecutor);
+        return verifierFuture.thenCompose(resolver -> {
+            if (resolver == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return resolver.resolveAsync(domain).handle((published, error) -> {
+                if (error != null) {
+                    LOG.debug("unable to verify snapshot of {}", domain, error);
+                    return null;
+                }
+                if (!agrees(snapshot, published)) {
+                    LOG.info("name servers for {} publish {}, which disagrees with our snapshot. refetching", domain, published);
+                    return null;
+                }
+                snapshot.remembered = true;
+                return snapshot;
+            });
+        });
+    }
+    
+    private static boolean agrees(Snapshot snapshot, PublicIp published) {
+        Set<String> v4 = new HashSet<>();
+        Set<String> v6 = new HashSet<>();
+        try {
+            for (Record record : normalize(filterRoots(snapshot.records, false, true))) {
+                ("A".equals(record.type) ? v4 : v6).add(record.data);
+            }
+        } catch (UnknownHostException e) {
+            return false;
+        }
+        Inet4Address publishedV4 = published != null ? published.getV4() : null;
+        Inet6Address publishedV6 = published != null ? published.getV6() : null;
+        return (publishedV4 == null ? v4.isEmpty() : v4.contains(publishedV4.getHostAddress()))
+                && (publishedV6 == null ? v6.isEmpty() : v6.contains(publishedV6.getHostAddress()));
+    }
+    
+    private void remember(String domain, Snapshot snapshot) {
+        if (cacheTtlMs == 0) {
+            return;
+        }
+        snapshots.put(domain, snapshot);
+        if (snapshotDir == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(snapshotDir.toPath());
+            Path target = snapshotFile(domain).toPath();
+            Path temp = Files.createTempFile(snapshotDir.toPath(), domain, ".tmp");
+            SNAPSHOT_WRITER.writeValue(temp.toFile(), snapshot);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("unable to save snapshot of {} to {}", domain, snapshotDir, e);
+        }
+    }
+    
+    private Snapshot load(String domain) {
+        if (snapshotDir == null) {
+            return null;
+        }
+        File file = snapshotFile(domain);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return SNAPSHOT_READER.readValue(file);
+        } catch (IOException e) {
+            LOG.warn("ignoring unreadable snapshot {}", file, e);
+            return null;
+        }
+    }
+    
+    private void forget(String domain) {
+        snapshots.remove(domain);
+        if (snapshotDir != null && !snapshotFile(domain).delete() && snapshotFile(domain).exists()) {
+            LOG.warn("unable to delete snapshot of {}", domain);
+        }
+    }
+    
+    private File snapshotFile(String domain) {
+        return new File(snapshotDir, domain + ".json");
+    }
+    
+    private static DnsResolver authoritativeResolver(String domain) {
+        try {
+            return DnsJavaResolver.authoritativeFor(domain);
+        } catch (UnknownHostException e) {
+            LOG.debug("unable to find name servers for {}", domain, e);
+            return null;
+        }
     }
     
-    private List<Record> fetchAllRecords(String domain) throws Exception {
+    private CompletableFuture<List<Record>> fetchAllRecords(String domain) {
         Request request = new RequestBuilder()
                 .setMethod("GET")
-                .setUrl("https://api.godaddy.com/v1/domains/" + domain + "/records")
+                .setUrl(apiUrl + domain + "/records")
                 .addHeader("Authorization", "sso-key " + key + ":" + secret)
                 .build();
-        Response response = client.executeRequest(request).get();
-        String body = response.getResponseBody();
-        ObjectMapper objectMapper = new ObjectMapper();
-        Record[] records = objectMapper.readValue(body, Record[].class);
-        if (records == null || records.length < 1) {
-            return Collections.emptyList();
+        //concurrent fetches of the same zone might as well share a single call
+        return execute(request, domain, "GET " + domain, 0).thenApply(response -> {
+            int code = response.getStatusCode();
+            if (code != 200) {
+                throw new IllegalStateException("attempt to fetch DNS records returned " + code + ": " + response.getStatusText());
+            }
+            try (InputStream body = response.getResponseBodyAsStream()) {
+                return parseRecords(body);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+    
+    /**
+     * reads records one at a time straight off the (utf-8) bytes of a response, rather than decoding
+     * the whole thing into a String and binding it all into an array in one go
+     */
+    static List<Record> parseRecords(InputStream json) throws IOException {
+        try (JsonParser parser = RECORD_READER.getFactory().createParser(json)) {
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.VALUE_NULL) {
+                return Collections.emptyList();
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "expected an array of records, got " + token);
+            }
+            List<Record> records = new ArrayList<>();
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                records.add(RECORD_READER.readValue(parser));
+            }
+            if (token != JsonToken.END_ARRAY) {
+                throw new JsonParseException(parser, "expected a record, got " + token);
+            }
+            return records;
         }
-        return Arrays.asList(records);
+    }
+
+    /**
+     * @return utf-8 json, produced in buffers jackson recycles between calls (on the same thread)
+     */
+    static byte[] writeRecords(List<Record> records) throws JsonProcessingException {
+        return RECORDS_WRITER.writeValueAsBytes(records);
+    }
+    
+    private CompletableFuture<Void> setRecords(String domain, List<Record> records) {
+        return put(domain, apiUrl + domain + "/records", records);
+    }
+
+    /**
+     * replaces all records of a given type and name
+     */
+    private CompletableFuture<Void> setRecords(String domain, String type, String name, List<Record> records) {
+        List<Record> bare = new ArrayList<>(records.size());
+        for (Record record : records) {
+            //type and name are in the url
+            Record copy = record.copy();
+            copy.type = null;
+            copy.name = null;
+            bare.add(copy);
+        }
+        return put(domain, apiUrl + domain + "/records/" + type + "/" + name, bare);
     }
     
-    private void setRecords(String domain, List<Record> records) throws Exception {
-        ObjectMapper objectMapper = new ObjectMapper();
-        String recordsJson;
+    private CompletableFuture<Void> put(String domain, String url, List<Record> records) {
+        byte[] recordsJson;
         try {
-            recordsJson = objectMapper.writeValueAsString(records);
+            recordsJson = writeRecords(records);
         } catch (JsonProcessingException e) {
-            throw new IllegalStateException(e);
+            return failed(new IllegalStateException(e));
         }
         Request request = new RequestBuilder()
                 .setMethod("PUT")
-                .setUrl("https://api.godaddy.com/v1/domains/" + domain + "/records")
+                .setUrl(url)
                 .addHeader("Authorization", "sso-key " + key + ":" + secret)
                 .addHeader("Content-Type", "application/json")
                 .setBody(recordsJson)
                 .build();
-        Response response;
-        response = client.executeRequest(request).get();
-        int code = response.getStatusCode();
-        if (code != 200) {
-            throw new IllegalStateException("attempt tp update DNS records returned " + code + ": " + response.getStatusText());
+        return execute(request, domain, null, 0).thenAccept(response -> {
+            int code = response.getStatusCode();
+            if (code != 200) {
+                throw new IllegalStateException("attempt tp update DNS records returned " + code + ": " + response.getStatusText());
+            }
+        });
+    }
+
+    /**
+     * makes the given call when the rate limiter allows, and again (up to a point) if godaddy
+     * responds with a 429 (too many requests) anyway.
+     */
+    private CompletableFuture<Response> execute(Request request, String domain, String coalesceKey, int attempt) {
+        return limiter.submit(coalesceKey, () -> {
+            //only once the limiter lets it through, time spent queued isnt the request's
+            Span span = Tracing.request("godaddy", request.getMethod(), request.getUrl(), domain);
+            return client.executeRequest(request).toCompletableFuture().whenComplete((response, error) -> {
+                if (error != null) {
+                    span.fail(error);
+                } else {
+                    span.finish(response, request.getByteData() != null ? request.getByteData().length : 0);
+                }
+            });
+        }).thenCompose(response -> {
+            if (response.getStatusCode() != 429 || attempt >= MAX_RATE_LIMIT_RETRIES) {
+                return CompletableFuture.completedFuture(response);
+            }
+            long delayMs = retryAfterMs(response.getHeader("Retry-After"), clock.millis());
+            LOG.warn("rate limited by godaddy ({} calls queued), retrying {} {} in {} millis",
+                    limiter.getQueueDepth(), request.getMethod(), request.getUrl(), delayMs);
+            limiter.backOff(delayMs);
+            return execute(request, domain, coalesceKey, attempt + 1);
+        });
+    }
+    
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * @return whatever actually went wrong, rather than the wrappers it got delivered in
+     */
+    private static Exception unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof Exception) {
+            return (Exception) error;
+        }
+        throw (Error) error;
+    }
+
+    /**
+     * @param retryAfter value of a Retry-After header - either seconds or an http date
+     * @param nowMs current time (clock millis), for http dates
+     * @return millis to wait
+     */
+    static long retryAfterMs(String retryAfter, long nowMs) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return DEFAULT_RETRY_AFTER_MS;
+        }
+        String value = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime when = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, when.toInstant().toEpochMilli() - nowMs);
+            } catch (DateTimeParseException e2) {
+                return DEFAULT_RETRY_AFTER_MS;
+            }
+        }
+    }
+
+    /**
+     * godaddy may well spell out addresses differently (think "::" in v6) than we do
+     */
+    static List<Record> normalize(List<Record> addressRecords) throws UnknownHostException {
+        List<Record> output = new ArrayList<>(addressRecords.size());
+        for (Record record : addressRecords) {
+            Record copy = record.copy();
+            //these are all literals, so no actual lookups
+            copy.data = InetAddress.getByName(record.data).getHostAddress();
+            output.add(copy);
+        }
+        return output;
+    }
+
+    private static Map<String, List<Record>> group(List<Record> records) {
+        Map<String, List<Record>> grouped = new LinkedHashMap<>();
+        for (Record record : records) {
+            grouped.computeIfAbsent(record.type + "/" + record.name, k -> new ArrayList<>()).add(record);
         }
+        return grouped;
     }
 
     private List<Record> buildRecords(PublicIp addr, boolean alsoBuildWildcards) {
@@ -125,27 +565,53 @@ public class GoDaddyDnsUpdater implements DnsUpdater {
         return records;
     }
     
-    private List<Record> filterOutRoots(List<Record> input, boolean includeWildcards) {
+    /**
+     * @param input records to go over
+     * @param includeWildcards true to treat '*' records as roots as well
+     * @param roots true to return only the (A/AAAA) root records, false to return everything but
+     * @return filtered records
+     */
+    static List<Record> filterRoots(List<Record> input, boolean includeWildcards, boolean roots) {
         List<Record> output = new ArrayList<>();
         for (Record record : input) {
-            String type = record.type;
-            if (!("A".equals(type) || "AAAA".equals(type))) {
-                output.add(record);
-                continue;
-            }
-            String name = record.name;
-            if (!(("*".equals(name) && includeWildcards) || "@".equals(name))) {
+            if (isRoot(record, includeWildcards) == roots) {
                 output.add(record);
-                continue;
             }
-            //filter it out
         }
         return output;
     }
+    
+    private static boolean isRoot(Record record, boolean includeWildcards) {
+        String type = record.type;
+        if (!("A".equals(type) || "AAAA".equals(type))) {
+            return false;
+        }
+        String name = record.name;
+        return ("*".equals(name) && includeWildcards) || "@".equals(name);
+    }
+
+    /**
+     * the records of a zone, as of some point in time
+     */
+    @SuppressWarnings("unused")
+    private static class Snapshot {
+        public long fetchedAt;
+        public List<Record> records;
+        @JsonIgnore
+        public boolean remembered = false; //as opposed to freshly fetched
+
+        public Snapshot() {
+        }
+
+        public Snapshot(long fetchedAt, List<Record> records) {
+            this.fetchedAt = fetchedAt;
+            this.records = records;
+        }
+    }
 
     @SuppressWarnings("unused")
     @JsonInclude(JsonInclude.Include.NON_DEFAULT)
-    private static class Record {
+    static class Record {
         public String type = null;
         public String name = null;
         public String data = null;
@@ -159,6 +625,45 @@ public class GoDaddyDnsUpdater implements DnsUpdater {
         public Record() {
         }
 
+        public Record copy() {
+            Record rec = new Record();
+            rec.type = type;
+            rec.name = name;
+            rec.data = data;
+            rec.ttl = ttl;
+            rec.priority = priority;
+            rec.service = service;
+            rec.protocol = protocol;
+            rec.port = port;
+            rec.weight = weight;
+            return rec;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Record record = (Record) o;
+            return ttl == record.ttl &&
+                    priority == record.priority &&
+                    port == record.port &&
+                    weight == record.weight &&
+                    Objects.equals(type, record.type) &&
+                    Objects.equals(name, record.name) &&
+                    Objects.equals(data, record.data) &&
+                    Objects.equals(service, record.service) &&
+                    Objects.equals(protocol, record.protocol);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, name, data, ttl, priority, service, protocol, port, weight);
+        }
+
         @Override
         public String toString() {
             return type + " " + name + " = " + data;
@@ -0,0 +1,250 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.dns;
+
+import net.radai.anthony.publicip.PublicIp;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * asks a domain's authoritative name servers (each one separately) what they serve for it.
+ * used to find out how long it takes an update to actually be served everywhere, and to skip
+ * updates that would change nothing.
+ */
+public class PropagationVerifier implements AutoCloseable {
+    private final static Logger LOG = LogManager.getLogger(PropagationVerifier.class);
+    public static final long DEFAULT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+    public static final long DEFAULT_POLL_INTERVAL_MS = 5000;
+    
+    /**
+     * domain --&gt; (server name --&gt; resolver querying only that server), null if they cant be found
+     */
+    private final Function<String, Map<String, DnsResolver>> nameServerFinder;
+    private final Executor blockingExecutor; //for finding name servers, which blocks
+    private final long timeoutMs;
+    private final long pollIntervalMs;
+    private final ScheduledExecutorService timer;
+    private final Map<String, Map<String, DnsResolver>> nameServers = new ConcurrentHashMap<>();
+
+    PropagationVerifier(
+            Function<String, Map<String, DnsResolver>> nameServerFinder,
+            Executor blockingExecutor,
+            long timeoutMs,
+            long pollIntervalMs
+    ) {
+        if (timeoutMs <= 0 || pollIntervalMs <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.nameServerFinder = nameServerFinder;
+        this.blockingExecutor = blockingExecutor;
+        this.timeoutMs = timeoutMs;
+        this.pollIntervalMs = pollIntervalMs;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "propagation-verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param blockingExecutor runs the (blocking) name server lookups
+     * @param timeoutMs how long to wait for an update to be served by all name servers
+     */
+    public PropagationVerifier(Executor blockingExecutor, long timeoutMs) {
+        this(PropagationVerifier::findNameServers, blockingExecutor, timeoutMs, DEFAULT_POLL_INTERVAL_MS);
+    }
+
+    /**
+     * @param domain domain
+     * @param ip address(es) the domain should point to
+     * @param wildcardAsWell true to also check the '*' records
+     * @return completes with true if every name server for the domain already serves exactly the given ip
+     * (and false if any of them doesnt, or cant be asked)
+     */
+    public CompletableFuture<Boolean> isServed(String domain, PublicIp ip, boolean wildcardAsWell) {
+        return nameServers(domain).thenCompose(servers -> {
+            if (servers == null) {
+                return CompletableFuture.completedFuture(false);
+            }
+            List<String> names = new ArrayList<>();
+            names.add(domain);
+            if (wildcardAsWell) {
+                //the servers synthesize an answer from the wildcard records for any name without records of its own
+                names.add("*." + domain);
+            }
+            List<CompletableFuture<Boolean>> checks = new ArrayList<>();
+            for (DnsResolver resolver : servers.values()) {
+                checks.add(resolver.resolveAllAsync(names).handle((served, error) -> {
+                    if (error != null || served.size() != names.size()) {
+                        return false;
+                    }
+                    for (PublicIp servedIp : served.values()) {
+                        if (!ip.equals(servedIp)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            return CompletableFuture.allOf(checks.toArray(new CompletableFuture[0])).thenApply(nothing -> {
+                for (CompletableFuture<Boolean> check : checks) {
+                    if (!check.join()) {
+                        return false;
+                    }
+                }
+                return true;
+            });
+        });
+    }
+
+    /**
+     * keeps asking every name server for the domain until they all serve the given ip, or time runs out
+     * @param domain domain
+     * @param ip address(es) the domain was just pointed to
+     * @return completes with how long it took each server to serve the ip
+     */
+    public CompletableFuture<Propagation> awaitPropagation(String domain, PublicIp ip) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        return nameServers(domain).thenCompose(servers -> {
+            if (servers == null) {
+                CompletableFuture<Propagation> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new UnknownHostException("unable to find name servers for " + domain));
+                return failed;
+            }
+            Map<String, CompletableFuture<Long>> latencies = new LinkedHashMap<>();
+            for (Map.Entry<String, DnsResolver> entry : servers.entrySet()) {
+                CompletableFuture<Long> latency = new CompletableFuture<>();
+                poll(entry.getValue(), domain, ip, start, deadline, latency);
+                latencies.put(entry.getKey(), latency);
+            }
+            return CompletableFuture.allOf(latencies.values().toArray(new CompletableFuture[0])).thenApply(nothing -> {
+                Map<String, Long> results = new LinkedHashMap<>();
+                latencies.forEach((server, latency) -> results.put(server, latency.join()));
+                return new Propagation(domain, ip, results);
+            });
+        });
+    }
+    
+    private void poll(DnsResolver resolver, String domain, PublicIp ip, long start, long deadline, CompletableFuture<Long> latency) {
+        resolver.resolveAsync(domain).whenComplete((served, error) -> {
+            long now = System.nanoTime();
+            if (error == null && ip.equals(served)) {
+                latency.complete(TimeUnit.NANOSECONDS.toMillis(now - start));
+                return;
+            }
+            if (now + TimeUnit.MILLISECONDS.toNanos(pollIntervalMs) - deadline > 0) {
+                latency.complete(null); //never got there
+                return;
+            }
+            timer.schedule(() -> poll(resolver, domain, ip, start, deadline, latency), pollIntervalMs, TimeUnit.MILLISECONDS);
+        });
+    }
+    
+    private CompletableFuture<Map<String, DnsResolver>> nameServers(String domain) {
+        Map<String, DnsResolver> known = nameServers.get(domain);
+        if (known != null) {
+            return CompletableFuture.completedFuture(known);
+        }
+        return CompletableFuture.supplyAsync(() -> nameServers.computeIfAbsent(domain, nameServerFinder), blockingExecutor);
+    }
+    
+    private static Map<String, DnsResolver> findNameServers(String domain) {
+        try {
+            Map<String, DnsResolver> servers = new LinkedHashMap<>();
+            for (String server : DnsJavaResolver.findNameServers(domain)) {
+                servers.put(server, new DnsJavaResolver(Collections.singletonList(server)).bypassingCache());
+            }
+            return servers;
+        } catch (UnknownHostException e) {
+            LOG.debug("unable to find name servers for {}", domain, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * how long it took each of a domain's name servers to serve a new ip
+     */
+    public static class Propagation {
+        private final String domain;
+        private final PublicIp ip;
+        private final Map<String, Long> latenciesMs;
+
+        public Propagation(String domain, PublicIp ip, Map<String, Long> latenciesMs) {
+            this.domain = domain;
+            this.ip = ip;
+            this.latenciesMs = Collections.unmodifiableMap(new LinkedHashMap<>(latenciesMs));
+        }
+
+        public String getDomain() {
+            return domain;
+        }
+
+        public PublicIp getIp() {
+            return ip;
+        }
+
+        /**
+         * @return server name --&gt; millis until it served the ip, null if it never did
+         */
+        public Map<String, Long> getLatenciesMs() {
+            return latenciesMs;
+        }
+
+        public boolean isComplete() {
+            return !latenciesMs.containsValue(null);
+        }
+
+        /**
+         * @return millis until all servers served the ip, or -1 if they never did
+         */
+        public long getTimeToConsistentMs() {
+            long max = 0;
+            for (Long latency : latenciesMs.values()) {
+                if (latency == null) {
+                    return -1;
+                }
+                max = Math.max(max, latency);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return domain + " as " + ip + ": " + latenciesMs;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * a value that can go up and down, read off whoever owns it whenever metrics are scraped
+ */
+public class Gauge implements Metric {
+    private final DoubleSupplier value;
+
+    public Gauge(DoubleSupplier value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value required");
+        }
+        this.value = value;
+    }
+
+    public double get() {
+        return value.getAsDouble();
+    }
+
+    @Override
+    public String getType() {
+        return "gauge";
+    }
+
+    @Override
+    public void writeTo(StringBuilder out, String name, String labels) {
+        out.append(name).append(labels).append(' ');
+        Metric.appendValue(out, get());
+        out.append('\n');
+    }
+}
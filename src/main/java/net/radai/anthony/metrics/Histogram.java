@@ -0,0 +1,116 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * a latency distribution over fixed buckets. recording is lock-free (a bucket increment and 2 adds),
+ * so it can sit on any hot path. values are recorded in nanos and exposed in seconds, as prometheus expects
+ */
+public class Histogram implements Metric {
+    /**
+     * upper bounds (in seconds) that cover everything from a cached lookup to a timed out http call
+     */
+    public static final double[] DEFAULT_BOUNDS_SEC = {
+            0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+
+    private final double[] boundsSec;
+    private final long[] boundsNanos;
+    private final AtomicLongArray buckets; //not cumulative, the last one is +Inf
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Histogram(double... boundsSec) {
+        if (boundsSec == null || boundsSec.length == 0) {
+            throw new IllegalArgumentException("at least one bucket required");
+        }
+        this.boundsSec = boundsSec.clone();
+        this.boundsNanos = new long[boundsSec.length];
+        for (int i = 0; i < boundsSec.length; i++) {
+            if (!(boundsSec[i] > 0) || (i > 0 && boundsSec[i] <= boundsSec[i - 1])) {
+                throw new IllegalArgumentException("bucket bounds must be positive and increasing");
+            }
+            boundsNanos[i] = (long) (boundsSec[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+        this.buckets = new AtomicLongArray(boundsSec.length + 1);
+    }
+
+    public Histogram() {
+        this(DEFAULT_BOUNDS_SEC);
+    }
+
+    public void observe(long nanos) {
+        long value = Math.max(0, nanos);
+        int bucket = 0;
+        //there are few enough buckets for a linear scan to beat a binary search
+        while (bucket < boundsNanos.length && value > boundsNanos[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        sumNanos.add(value);
+    }
+
+    /**
+     * @param startNanos a {@link System#nanoTime()} taken when whatever is being measured began
+     */
+    public void observeSince(long startNanos) {
+        observe(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getSumSec() {
+        return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    @Override
+    public String getType() {
+        return "histogram";
+    }
+
+    @Override
+    public void writeTo(StringBuilder out, String name, String labels) {
+        //read without stopping writers, so make sure the +Inf bucket and count agree with each other
+        long cumulative = 0;
+        for (int i = 0; i < boundsSec.length; i++) {
+            cumulative += buckets.get(i);
+            appendBucket(out, name, labels, Double.toString(boundsSec[i]), cumulative);
+        }
+        cumulative += buckets.get(boundsSec.length);
+        appendBucket(out, name, labels, "+Inf", cumulative);
+        out.append(name).append("_sum").append(labels).append(' ');
+        Metric.appendValue(out, getSumSec());
+        out.append('\n');
+        out.append(name).append("_count").append(labels).append(' ').append(cumulative).append('\n');
+    }
+
+    private static void appendBucket(StringBuilder out, String name, String labels, String le, long count) {
+        out.append(name).append("_bucket{");
+        if (!labels.isEmpty()) {
+            //drop the closing brace, le goes last
+            out.append(labels, 1, labels.length() - 1).append(',');
+        }
+        out.append("le=\"").append(le).append("\"} ").append(count).append('\n');
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.metrics;
+
+/**
+ * a single (labeled) time series, or a group of them in the case of histograms
+ */
+interface Metric {
+
+    /**
+     * @return the prometheus type of this metric
+     */
+    String getType();
+
+    /**
+     * appends the current value(s) of this metric in prometheus text format
+     * @param name name of the metric family
+     * @param labels pre-formatted labels ("{k="v",...}"), or an empty string
+     */
+    void writeTo(StringBuilder out, String name, String labels);
+
+    static void appendValue(StringBuilder out, double value) {
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * holds every metric the process exposes, grouped into families by name. metrics are meant to be looked
+ * up once (say, when a component is built) and then updated directly, as lookups involve formatting labels
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry SHARED = new MetricsRegistry();
+    private static final Pattern NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+    private static final Pattern LABEL_NAME = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+
+    //sorted, so scrapes come out in a stable order
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @return the registry the rest of anthony reports to (and the metrics endpoint exposes)
+     */
+    public static MetricsRegistry shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param labels alternating label names and values
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return register(name, help, "counter", labels, key -> new Counter());
+    }
+
+    /**
+     * @param labels alternating label names and values
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return register(name, help, "histogram", labels, key -> new Histogram());
+    }
+
+    /**
+     * registers (or replaces, if one with the same labels is already registered) a gauge
+     * @param labels alternating label names and values
+     */
+    public Gauge gauge(String name, String help, DoubleSupplier value, String... labels) {
+        Gauge gauge = new Gauge(value);
+        family(name, help, "gauge").children.put(formatLabels(labels), gauge);
+        return gauge;
+    }
+
+    public void writeTo(Writer out) throws IOException {
+        out.write(scrape());
+    }
+
+    /**
+     * @return all metrics in prometheus text format (version 0.0.4)
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            if (family.children.isEmpty()) {
+                continue;
+            }
+            out.append("# HELP ").append(name).append(' ').append(escapeHelp(family.help)).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Metric> child : family.children.entrySet()) {
+                child.getValue().writeTo(out, name, child.getKey());
+            }
+        }
+        return out.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <M extends Metric> M register(String name, String help, String type, String[] labels, Function<String, M> factory) {
+        return (M) family(name, help, type).children.computeIfAbsent(formatLabels(labels), factory);
+    }
+
+    private Family family(String name, String help, String type) {
+        if (name == null || !NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("invalid metric name " + name);
+        }
+        Family family = families.computeIfAbsent(name, k -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    static String formatLabels(String... labels) {
+        if (labels == null || labels.length == 0) {
+            return "";
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels must come in name, value pairs");
+        }
+        StringBuilder out = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            String labelName = labels[i];
+            if (labelName == null || !LABEL_NAME.matcher(labelName).matches() || labelName.startsWith("__")) {
+                throw new IllegalArgumentException("invalid label name " + labelName);
+            }
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labelName).append("=\"");
+            String value = String.valueOf(labels[i + 1]);
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    out.append('\\').append(c);
+                } else if (c == '\n') {
+                    out.append("\\n");
+                } else {
+                    out.append(c);
+                }
+            }
+            out.append('"');
+        }
+        return out.append('}').toString();
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static class Family {
+        private final String help;
+        private final String type;
+        private final ConcurrentMap<String, Metric> children = new ConcurrentSkipListMap<>();
+
+        private Family(String help, String type) {
+            this.help = help == null ? "" : help;
+            this.type = type;
+        }
+    }
+}
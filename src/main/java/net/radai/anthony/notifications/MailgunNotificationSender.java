@@ -16,17 +16,21 @@
 
 package net.radai.anthony.notifications;
 
+import net.radai.anthony.tracing.Span;
+import net.radai.anthony.tracing.Tracing;
 import org.asynchttpclient.AsyncHttpClient;
 import org.asynchttpclient.DefaultAsyncHttpClient;
 import org.asynchttpclient.DefaultAsyncHttpClientConfig;
 import org.asynchttpclient.Realm;
 import org.asynchttpclient.Request;
 import org.asynchttpclient.RequestBuilder;
-import org.asynchttpclient.Response;
 
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 /**
  * see https://documentation.mailgun.com/en/latest/api_reference.html for api doc
@@ -42,7 +46,7 @@ public class MailgunNotificationSender implements NotificationSender {
     private final String fromParam;
     private final String toParam;
 
-    MailgunNotificationSender(
+    public MailgunNotificationSender(
             AsyncHttpClient client,
             String domain,
             String from,
@@ -71,6 +75,22 @@ public class MailgunNotificationSender implements NotificationSender {
 
     @Override
     public void send(List<Notification> notifications) throws Exception {
+        try {
+            sendAsync(notifications).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAsync(List<Notification> notifications) {
         Request req = new RequestBuilder()
                 .setUrl("https://api.mailgun.net/v3/" + domain + "/messages")
                 .setMethod("POST")
@@ -80,11 +100,20 @@ public class MailgunNotificationSender implements NotificationSender {
                 .setRealm(realm)
                 .addFormParam("text", compose(notifications))
                 .build();
-        Response response = client.executeRequest(req).get();
-        int code = response.getStatusCode();
-        if (code != 200) {
-            throw new IllegalStateException("got " + code + ": " + response.getStatusText() + " while trying to send notifications");
-        }
+        //form encoded, so the size of the body isnt known up front
+        Span span = Tracing.request("mailgun", req.getMethod(), req.getUrl(), domain);
+        return client.executeRequest(req).toCompletableFuture().whenComplete((response, error) -> {
+            if (error != null) {
+                span.fail(error);
+            } else {
+                span.finish(response, -1);
+            }
+        }).thenAccept(response -> {
+            int code = response.getStatusCode();
+            if (code != 200) {
+                throw new IllegalStateException("got " + code + ": " + response.getStatusText() + " while trying to send notifications");
+            }
+        });
     }
     
     private String compose(List<Notification> notifications) {
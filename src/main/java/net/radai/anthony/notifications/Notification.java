@@ -17,14 +17,53 @@
 package net.radai.anthony.notifications;
 
 import java.time.Instant;
+import java.time.format.DateTimeFormatter;
 
 public class Notification {
     private final Instant timestamp;
     private final String text;
+    /**
+     * consecutive (pending) notifications with the same (non null) key may be coalesced into one
+     */
+    private final String coalesceKey;
+    private final int occurrences; //how many notifications this one stands for
+    private final Instant firstTimestamp; //of the earliest of them
 
-    public Notification(Instant timestamp, String text) {
+    public Notification(Instant timestamp, String text, String coalesceKey, int occurrences, Instant firstTimestamp) {
+        if (occurrences < 1) {
+            throw new IllegalArgumentException();
+        }
         this.timestamp = timestamp;
         this.text = text;
+        this.coalesceKey = coalesceKey;
+        this.occurrences = occurrences;
+        this.firstTimestamp = firstTimestamp;
+    }
+
+    public Notification(Instant timestamp, String text, String coalesceKey) {
+        this(timestamp, text, coalesceKey, 1, timestamp);
+    }
+
+    public Notification(Instant timestamp, String text) {
+        this(timestamp, text, null);
+    }
+
+    /**
+     * @param later a later notification with the same coalesce key
+     * @return a single notification summarizing this one and the later one
+     */
+    public Notification coalesce(Notification later) {
+        if (!canCoalesce(later)) {
+            throw new IllegalArgumentException("cannot coalesce " + this + " with " + later);
+        }
+        int total = occurrences + later.occurrences;
+        String summary = later.text + " (" + total + " similar notifications since "
+                + DateTimeFormatter.ISO_INSTANT.format(firstTimestamp) + ")";
+        return new Notification(later.timestamp, summary, coalesceKey, total, firstTimestamp);
+    }
+
+    public boolean canCoalesce(Notification later) {
+        return coalesceKey != null && coalesceKey.equals(later.coalesceKey);
     }
 
     public Instant getTimestamp() {
@@ -34,4 +73,21 @@ public class Notification {
     public String getText() {
         return text;
     }
+
+    public String getCoalesceKey() {
+        return coalesceKey;
+    }
+
+    public int getOccurrences() {
+        return occurrences;
+    }
+
+    public Instant getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    @Override
+    public String toString() {
+        return timestamp + " - " + text;
+    }
 }
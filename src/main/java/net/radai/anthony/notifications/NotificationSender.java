@@ -17,7 +17,26 @@
 package net.radai.anthony.notifications;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface NotificationSender {
     void send(List<Notification> notifications) throws Exception;
+
+    /**
+     * same as {@link #send(List)}, without waiting around for the result.
+     * implementations with an async api of their own should override this (and make {@link #send}
+     * wait on it), this default simply blocks the calling thread.
+     * @param notifications notifications to send
+     * @return completes once sent, or with whatever went wrong
+     */
+    default CompletableFuture<Void> sendAsync(List<Notification> notifications) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            send(notifications);
+            result.complete(null);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
 }
@@ -0,0 +1,63 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.publicip;
+
+import net.radai.anthony.dns.DnsJavaResolver;
+import net.radai.anthony.dns.DnsResolver;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * finds the public IP using a single DNS query to a resolver that answers with
+ * the address the query came from (see https://www.opendns.com/ for the "myip" trick).
+ * much cheaper than asking http services, but a single, unverified source.
+ */
+public class DnsIpFinder implements PublicIpFinder {
+    private final static Logger LOG = LogManager.getLogger(DnsIpFinder.class);
+    
+    private final DnsResolver resolver;
+    private final String hostname;
+
+    public DnsIpFinder(DnsResolver resolver, String hostname) {
+        if (resolver == null || hostname == null || hostname.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        this.resolver = resolver;
+        this.hostname = hostname;
+    }
+
+    public static DnsIpFinder openDns() {
+        return new DnsIpFinder(
+                //the answer is the asking ip, it mustnt come from a cache
+                new DnsJavaResolver(Arrays.asList("208.67.222.222", "208.67.220.220")).bypassingCache(),
+                "myip.opendns.com."
+        );
+    }
+
+    @Override
+    public PublicIp get() {
+        try {
+            return resolver.resolve(hostname);
+        } catch (IOException e) {
+            LOG.debug("unable to resolve " + hostname, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.publicip;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cheaply watches the local network configuration (interface addresses and the routing table)
+ * for changes. a local change (new DHCP lease, different uplink, VPN coming up etc) is a good
+ * hint that the public IP might have changed as well, and so is a reason to run the (expensive)
+ * public IP detection early instead of waiting for the next poll.
+ */
+public class LocalNetworkMonitor implements AutoCloseable {
+    private final static Logger LOG = LogManager.getLogger(LocalNetworkMonitor.class);
+    private final static File ROUTING_TABLE = new File("/proc/net/route");
+    private final static File V6_ROUTING_TABLE = new File("/proc/net/ipv6_route");
+    //Iface, Destination, Gateway and Mask. the rest (RefCnt, Use in particular) change with traffic
+    private final static int[] ROUTING_TABLE_COLUMNS = {0, 1, 2, 7};
+    //destination, prefix length, next hop and device. the rest (refcnt, use in particular) change with traffic
+    private final static int[] V6_ROUTING_TABLE_COLUMNS = {0, 1, 4, 9};
+    
+    private final Callable<String> sampler;
+    private final ScheduledExecutorService executor;
+    private String lastSample;
+    private boolean changed = false;
+
+    LocalNetworkMonitor(long checkIntervalMs, Callable<String> sampler) {
+        this.sampler = sampler;
+        if (checkIntervalMs <= 0) {
+            //disabled
+            this.executor = null;
+            return;
+        }
+        this.lastSample = sample();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "local-network-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::check, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param checkIntervalMs how often (in millis) to inspect the local network. 0 to disable
+     */
+    public LocalNetworkMonitor(long checkIntervalMs) {
+        this(checkIntervalMs, LocalNetworkMonitor::fingerprint);
+    }
+
+    /**
+     * waits for a local network change, or for the given timeout, whichever comes first.
+     * changes that happened since the previous call count as well.
+     * @param timeoutMs max time to wait (in millis)
+     * @return true if there was a change, false if timed out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitChange(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        long remaining = timeoutMs;
+        while (!changed && remaining > 0) {
+            wait(remaining);
+            remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        }
+        boolean result = changed;
+        changed = false;
+        return result;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+    
+    private void check() {
+        String sample = sample();
+        if (sample == null) {
+            return;
+        }
+        synchronized (this) {
+            if (lastSample != null && !Objects.equals(sample, lastSample)) {
+                LOG.debug("local network changed from [{}] to [{}]", lastSample, sample);
+                changed = true;
+                notifyAll();
+            }
+            lastSample = sample;
+        }
+    }
+    
+    private String sample() {
+        try {
+            return sampler.call();
+        } catch (Exception e) {
+            LOG.debug("unable to inspect local network", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return a description of the local network config that changes when routes
+     * or addresses on any of the (up, non-loopback) interfaces change
+     * @throws Exception if anything goes wrong
+     */
+    static String fingerprint() throws Exception {
+        List<String> parts = new ArrayList<>();
+        for (NetworkInterface iface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!iface.isUp() || iface.isLoopback()) {
+                continue;
+            }
+            for (InetAddress address : Collections.list(iface.getInetAddresses())) {
+                parts.add(iface.getName() + "=" + address.getHostAddress());
+            }
+        }
+        Collections.sort(parts); //enumeration order isnt guaranteed
+        StringBuilder sb = new StringBuilder(String.join(",", parts));
+        //on linux this also catches gateway changes that leave local addresses as they were
+        if (ROUTING_TABLE.canRead()) {
+            sb.append(" ").append(Integer.toHexString(routes(Files.readAllLines(ROUTING_TABLE.toPath()), ROUTING_TABLE_COLUMNS).hashCode()));
+        }
+        if (V6_ROUTING_TABLE.canRead()) {
+            sb.append(" ").append(Integer.toHexString(routes(Files.readAllLines(V6_ROUTING_TABLE.toPath()), V6_ROUTING_TABLE_COLUMNS).hashCode()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param table lines of a routing table
+     * @param columns (whitespace separated) columns to keep
+     * @return the given columns of every line
+     */
+    static List<String> routes(List<String> table, int[] columns) {
+        List<String> routes = new ArrayList<>(table.size());
+        for (String line : table) {
+            String[] fields = line.trim().split("\\s+");
+            StringBuilder sb = new StringBuilder();
+            for (int column : columns) {
+                if (column < fields.length) {
+                    sb.append(fields[column]).append(' ');
+                }
+            }
+            routes.add(sb.toString());
+        }
+        return routes;
+    }
+}
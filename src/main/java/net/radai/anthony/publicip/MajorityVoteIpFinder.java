@@ -16,32 +16,78 @@
 
 package net.radai.anthony.publicip;
 
+import net.radai.anthony.metrics.Counter;
+import net.radai.anthony.metrics.Histogram;
+import net.radai.anthony.metrics.MetricsRegistry;
 import net.radai.anthony.publicip.provider.PublicIpServiceProvider;
+import net.radai.anthony.tracing.Span;
+import net.radai.anthony.tracing.Tracing;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.asynchttpclient.AsyncHttpClient;
 import org.asynchttpclient.DefaultAsyncHttpClient;
 import org.asynchttpclient.DefaultAsyncHttpClientConfig;
 import org.asynchttpclient.ListenableFuture;
 import org.asynchttpclient.Request;
+import org.asynchttpclient.RequestBuilder;
 import org.asynchttpclient.Response;
 
 import java.net.Inet4Address;
 import java.net.Inet6Address;
-import java.net.InetAddress;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 
 public class MajorityVoteIpFinder implements PublicIpFinder, AutoCloseable {
+    private final static Logger LOG = LogManager.getLogger(MajorityVoteIpFinder.class);
+    public static final long DEFAULT_BUDGET_MS = 20000;
+    /**
+     * every this many cycles the least recently queried provider is
+     * queried as well, so demoted providers get a chance to redeem themselves
+     */
+    static final int REPROBE_INTERVAL = 10;
+    /**
+     * never hedge sooner than this (in millis), so fast providers with
+     * a bit of jitter dont cause extra requests every cycle
+     */
+    static final long MIN_HEDGE_DELAY_MS = 250;
+    
     private final AsyncHttpClient client;
+    private final boolean ownClient; //true if we created the client (and so should close it)
+    /**
+     * number of providers that must agree on the exact same result for
+     * {@link #get()} to return without waiting on the remaining providers
+     */
+    private final int quorum;
+    /**
+     * number of (best scoring) providers queried up front. the rest of the pool
+     * are spares, used to hedge against primaries that are slow or failing
+     */
+    private final int fanout;
+    /**
+     * overall time (in millis) a single call to {@link #get()} may take
+     */
+    private final long budgetMs;
     private final List<PublicIpServiceProvider> providers;
+    private final Map<PublicIpServiceProvider, ProviderStats> stats;
+    private final Map<PublicIpServiceProvider, ProviderMetrics> metrics;
+    private final Counter quorumVotes;
+    private final Counter pluralityVotes; //no quorum, went with whatever most providers said
+    private final Counter failedVotes; //no usable answers at all
+    private long cycle = 0;
 
-    MajorityVoteIpFinder(AsyncHttpClient client, PublicIpServiceProvider... providers) {
-        if (providers == null || providers.length < 1) {
+    private MajorityVoteIpFinder(AsyncHttpClient client, boolean ownClient, int quorum, int fanout, long budgetMs, List<PublicIpServiceProvider> providers) {
+        if (providers == null || providers.isEmpty()) {
             throw new IllegalArgumentException();
         }
         for (PublicIpServiceProvider provider : providers) {
@@ -49,54 +95,255 @@ public class MajorityVoteIpFinder implements PublicIpFinder, AutoCloseable {
                 throw new IllegalArgumentException();
             }
         }
+        if (fanout < 1 || fanout > providers.size()) {
+            throw new IllegalArgumentException("fanout must be between 1 and " + providers.size() + ", got " + fanout);
+        }
+        if (quorum < 1 || quorum > providers.size()) {
+            throw new IllegalArgumentException("quorum must be between 1 and " + providers.size() + ", got " + quorum);
+        }
+        if (budgetMs <= 0) {
+            throw new IllegalArgumentException("budget must be positive, got " + budgetMs);
+        }
         this.client = client;
-        this.providers = List.of(providers);
+        this.ownClient = ownClient;
+        this.quorum = quorum;
+        this.fanout = fanout;
+        this.budgetMs = budgetMs;
+        this.providers = Collections.unmodifiableList(new ArrayList<>(providers));
+        this.stats = new HashMap<>();
+        this.metrics = new HashMap<>();
+        MetricsRegistry registry = MetricsRegistry.shared();
+        for (PublicIpServiceProvider provider : this.providers) {
+            stats.put(provider, new ProviderStats());
+            metrics.put(provider, new ProviderMetrics(registry, provider.getName()));
+        }
+        String votesHelp = "public ip detections, by how the result was arrived at";
+        this.quorumVotes = registry.counter("anthony_ip_votes_total", votesHelp, "outcome", "quorum");
+        this.pluralityVotes = registry.counter("anthony_ip_votes_total", votesHelp, "outcome", "plurality");
+        this.failedVotes = registry.counter("anthony_ip_votes_total", votesHelp, "outcome", "none");
     }
 
-    public MajorityVoteIpFinder(PublicIpServiceProvider... providers) {
+    MajorityVoteIpFinder(AsyncHttpClient client, int quorum, PublicIpServiceProvider... providers) {
+        this(client, quorum, providers == null ? 0 : providers.length, DEFAULT_BUDGET_MS, providers == null ? null : Arrays.asList(providers));
+    }
+
+    /**
+     * @param client http client to use. not closed by this finder
+     * @param quorum number of agreeing providers required to return early
+     * @param fanout number of providers to query up front. initially these are taken from
+     *               the head of the pool, later on the best scoring providers are picked
+     * @param budgetMs deadline (in millis) for a single detection
+     * @param providers provider pool. providers beyond the fanout are used as spares
+     */
+    public MajorityVoteIpFinder(AsyncHttpClient client, int quorum, int fanout, long budgetMs, List<PublicIpServiceProvider> providers) {
+        this(client, false, quorum, fanout, budgetMs, providers);
+    }
+
+    /**
+     * same as {@link #MajorityVoteIpFinder(AsyncHttpClient, int, int, long, List)}, with a dedicated http client
+     */
+    public MajorityVoteIpFinder(int quorum, int fanout, long budgetMs, List<PublicIpServiceProvider> providers) {
         this(new DefaultAsyncHttpClient(
                 new DefaultAsyncHttpClientConfig.Builder()
                         .build()
                 ),
+                true,
+                quorum,
+                fanout,
+                budgetMs,
                 providers);
     }
 
+    /**
+     * builds a finder that queries all given providers
+     */
+    public MajorityVoteIpFinder(int quorum, PublicIpServiceProvider... providers) {
+        this(quorum, providers == null ? 0 : providers.length, DEFAULT_BUDGET_MS, providers == null ? null : Arrays.asList(providers));
+    }
+
+    /**
+     * builds a finder that waits on all given providers
+     */
+    public MajorityVoteIpFinder(PublicIpServiceProvider... providers) {
+        this(providers == null ? 0 : providers.length, providers);
+    }
+
+    public int getQuorum() {
+        return quorum;
+    }
+
     @Override
     public PublicIp get() throws InterruptedException {
-        List<CompletableFuture<PublicIpResult>> futures = new ArrayList<>(providers.size());
-        for (PublicIpServiceProvider provider : providers) {
-            Request req = provider.buildRequest();
-            ListenableFuture<Response> future = client.executeRequest(req);
-            CompletableFuture<PublicIpResult> resultFuture = future.toCompletableFuture()
-                    .handle((response, throwable) -> {
-                        if (throwable != null) {
-                            return new PublicIpResult(provider, throwable);
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(budgetMs);
+        BlockingQueue<Attempt> completed = new LinkedBlockingQueue<>();
+        List<PublicIpServiceProvider> ranked = rank(cycle);
+        Deque<PublicIpServiceProvider> spares = new ArrayDeque<>(ranked.subList(fanout, ranked.size()));
+        List<Attempt> attempts = new ArrayList<>(ranked.size());
+        for (PublicIpServiceProvider provider : ranked.subList(0, fanout)) {
+            attempts.add(launch(provider, deadline, completed));
+        }
+        PublicIp winner = null;
+        List<PublicIpResult> votes = new ArrayList<>(providers.size());
+        Map<PublicIp, Integer> agreements = new HashMap<>();
+        try {
+            while (true) {
+                if (votes.size() == attempts.size()) {
+                    if (spares.isEmpty()) {
+                        break;
+                    }
+                    //everyone answered and there's still no quorum. ask someone else
+                    attempts.add(launch(spares.poll(), deadline, completed));
+                }
+                long now = System.nanoTime();
+                if (now - deadline >= 0) {
+                    break; //out of time, make do with what we have
+                }
+                long wakeAt = deadline;
+                if (!spares.isEmpty()) {
+                    //hedge any attempt that has been running for longer than is usual for its provider
+                    for (Attempt attempt : new ArrayList<>(attempts)) {
+                        if (attempt.finished || attempt.hedged || spares.isEmpty()) {
+                            continue;
                         }
-                        try {
-                            return new PublicIpResult(provider, provider.parse(response));
-                        } catch (Exception e) {
-                            return new PublicIpResult(provider, e);
+                        if (now - attempt.hedgeAt >= 0) {
+                            attempt.hedged = true;
+                            attempts.add(launch(spares.poll(), deadline, completed));
+                        } else if (attempt.hedgeAt - wakeAt < 0) {
+                            wakeAt = attempt.hedgeAt;
                         }
-            });
-            futures.add(resultFuture);
-        }
-        List<PublicIpResult> votes = new ArrayList<>(futures.size());
-        for (Future<PublicIpResult> future : futures) {
-            try {
-                votes.add(future.get());
-            } catch (ExecutionException e) {
-                throw new IllegalStateException(e); //should never happen
+                    }
+                }
+                Attempt attempt = completed.poll(wakeAt - now, TimeUnit.NANOSECONDS);
+                if (attempt == null) {
+                    continue;
+                }
+                attempt.finished = true;
+                PublicIpResult vote = attempt.result;
+                votes.add(vote);
+                stats.get(attempt.provider).recordLatency(TimeUnit.NANOSECONDS.toMillis(attempt.finishedAt - attempt.startedAt));
+                metrics.get(attempt.provider).recordFinished(attempt.finishedAt - attempt.startedAt, vote.getIssue() == null);
+                if (vote.getIssue() != null) {
+                    if (!attempt.hedged && !spares.isEmpty()) {
+                        attempt.hedged = true;
+                        attempts.add(launch(spares.poll(), deadline, completed));
+                    }
+                    continue;
+                }
+                int agreeing = agreements.compute(vote.getIp(), COUNTER);
+                if (agreeing >= quorum) {
+                    //no point waiting on the stragglers
+                    winner = vote.getIp();
+                    break;
+                }
+            }
+        } finally {
+            cycle++;
+            long now = System.nanoTime();
+            for (Attempt attempt : attempts) {
+                if (!attempt.finished) {
+                    attempt.future.cancel(true);
+                    stats.get(attempt.provider).recordCancelled(TimeUnit.NANOSECONDS.toMillis(now - attempt.startedAt));
+                    metrics.get(attempt.provider).cancelled.inc();
+                }
+            }
+        }
+        if (winner != null) {
+            quorumVotes.inc();
+        } else {
+            winner = summarize(votes);
+            (winner != null ? pluralityVotes : failedVotes).inc();
+        }
+        for (PublicIpResult vote : votes) {
+            boolean failed = vote.getIssue() != null;
+            stats.get(vote.getProvider()).recordOutcome(failed, !failed && !agrees(vote.getIp(), winner));
+        }
+        if (LOG.isDebugEnabled()) {
+            for (PublicIpServiceProvider provider : ranked) {
+                LOG.debug("{}: {}", provider.getName(), stats.get(provider));
+            }
+        }
+        return winner;
+    }
+    
+    /**
+     * @param cycle current cycle number
+     * @return all providers, best first. every {@link #REPROBE_INTERVAL} cycles the least
+     * recently queried provider is moved up to take the last primary slot
+     */
+    private List<PublicIpServiceProvider> rank(long cycle) {
+        List<PublicIpServiceProvider> ranked = new ArrayList<>(providers);
+        //stable, so ties keep pool order
+        ranked.sort(Comparator.comparingDouble(provider -> stats.get(provider).getScore()));
+        if (cycle % REPROBE_INTERVAL == REPROBE_INTERVAL - 1 && fanout < ranked.size()) {
+            PublicIpServiceProvider stalest = null;
+            for (PublicIpServiceProvider candidate : ranked.subList(fanout, ranked.size())) {
+                if (stalest == null || stats.get(candidate).getLastQueried() < stats.get(stalest).getLastQueried()) {
+                    stalest = candidate;
+                }
             }
+            ranked.remove(stalest);
+            ranked.add(fanout - 1, stalest);
+        }
+        return ranked;
+    }
+    
+    private static boolean agrees(PublicIp vote, PublicIp winner) {
+        if (winner == null) {
+            return false;
+        }
+        if (vote.getV4() != null && !vote.getV4().equals(winner.getV4())) {
+            return false;
+        }
+        return vote.getV6() == null || vote.getV6().equals(winner.getV6());
+    }
+    
+    private Attempt launch(PublicIpServiceProvider provider, long deadline, BlockingQueue<Attempt> completed) {
+        long now = System.nanoTime();
+        long remainingMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - now));
+        int timeoutMs = (int) Math.min(provider.getTimeoutMs(), remainingMs);
+        long hedgeAfterMs = stats.get(provider).getLatencyPercentile(0.95);
+        if (hedgeAfterMs < 0) {
+            //no history to go by
+            hedgeAfterMs = timeoutMs / 2;
         }
-        return summarize(votes);
+        hedgeAfterMs = Math.max(hedgeAfterMs, MIN_HEDGE_DELAY_MS);
+        Request req = new RequestBuilder(provider.buildRequest())
+                .setRequestTimeout(timeoutMs)
+                .build();
+        stats.get(provider).recordQueried(cycle);
+        Attempt attempt = new Attempt(provider, now, now + TimeUnit.MILLISECONDS.toNanos(Math.min(hedgeAfterMs, timeoutMs)));
+        Span span = Tracing.request(provider.getName(), req.getMethod(), req.getUrl(), null);
+        attempt.future = client.executeRequest(req);
+        attempt.future.toCompletableFuture()
+                .handle((response, throwable) -> {
+                    if (throwable != null) {
+                        span.fail(throwable);
+                        return new PublicIpResult(provider, throwable);
+                    }
+                    span.finish(response, 0);
+                    try {
+                        return new PublicIpResult(provider, provider.parse(response));
+                    } catch (Exception e) {
+                        return new PublicIpResult(provider, e);
+                    }
+                })
+                .thenAccept(result -> {
+                    attempt.finishedAt = System.nanoTime();
+                    attempt.result = result;
+                    completed.add(attempt);
+                });
+        return attempt;
     }
 
     @Override
     public void close() throws Exception {
-        client.close();
+        if (ownClient) {
+            client.close();
+        }
     }
     
-    private PublicIp summarize(List<PublicIpResult> results) {
+    static PublicIp summarize(List<PublicIpResult> results) {
         Map<Inet4Address, Integer> v4Votes = new HashMap<>();
         Map<Inet6Address, Integer> v6Votes = new HashMap<>();
         for (PublicIpResult vote : results) {
@@ -121,14 +368,54 @@ public class MajorityVoteIpFinder implements PublicIpFinder, AutoCloseable {
         return new PublicIp(v4, v6);
     }
     
-    private final static BiFunction<InetAddress, Integer, Integer> COUNTER = (addr, count) -> {
+    private final static BiFunction<Object, Integer, Integer> COUNTER = (key, count) -> {
         if (count == null) {
             return 1;
         }
         return count + 1;
     };
     
-    private static <T> T findMajority(Map<T, Integer> votes) {
+    private static class Attempt {
+        private final PublicIpServiceProvider provider;
+        private final long startedAt;
+        private final long hedgeAt;
+        private ListenableFuture<Response> future;
+        //set by the completing thread, read after being taken off the completion queue
+        private long finishedAt;
+        private PublicIpResult result;
+        //only accessed by the thread calling get()
+        private boolean finished = false;
+        private boolean hedged = false;
+
+        private Attempt(PublicIpServiceProvider provider, long startedAt, long hedgeAt) {
+            this.provider = provider;
+            this.startedAt = startedAt;
+            this.hedgeAt = hedgeAt;
+        }
+    }
+    
+    private static class ProviderMetrics {
+        private final Histogram latency;
+        private final Counter succeeded;
+        private final Counter failed;
+        private final Counter cancelled; //abandoned, either out of time or no longer needed
+
+        private ProviderMetrics(MetricsRegistry registry, String provider) {
+            String requestsHelp = "public ip provider requests, by outcome";
+            latency = registry.histogram("anthony_provider_request_seconds",
+                    "time taken by public ip provider requests that completed", "provider", provider);
+            succeeded = registry.counter("anthony_provider_requests_total", requestsHelp, "provider", provider, "result", "ok");
+            failed = registry.counter("anthony_provider_requests_total", requestsHelp, "provider", provider, "result", "error");
+            cancelled = registry.counter("anthony_provider_requests_total", requestsHelp, "provider", provider, "result", "cancelled");
+        }
+
+        private void recordFinished(long nanos, boolean ok) {
+            latency.observe(nanos);
+            (ok ? succeeded : failed).inc();
+        }
+    }
+    
+    static <T> T findMajority(Map<T, Integer> votes) {
         T leader = null;
         int leaderVotes = Integer.MIN_VALUE;
         for (Map.Entry<T, Integer> entry : votes.entrySet()) {
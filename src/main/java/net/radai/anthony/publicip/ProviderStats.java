@@ -0,0 +1,113 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.publicip;
+
+import java.util.Arrays;
+
+/**
+ * tracks how well a single provider has been doing recently, in terms of
+ * latency, failures and disagreeing with the majority
+ */
+class ProviderStats {
+    private static final int WINDOW = 32;
+    private static final int MIN_SAMPLES = 5;
+    private static final double ALPHA = 0.2;
+    /**
+     * how many millis of latency a provider that always fails is "worth".
+     */
+    static final double ERROR_PENALTY_MS = 5000;
+    /**
+     * how many millis of latency a provider that always disagrees with the majority is "worth".
+     * this is worse than failing outright, as a wrong answer can sway the vote
+     */
+    static final double DISAGREEMENT_PENALTY_MS = 10000;
+    
+    private final long[] latencies = new long[WINDOW];
+    private int samples = 0;
+    private int next = 0;
+    private double latencyEwma = 0;
+    private double errorRate = 0;
+    private double disagreementRate = 0;
+    private long lastQueried = -1; //cycle number
+
+    synchronized void recordLatency(long latencyMs) {
+        latencies[next] = latencyMs;
+        next = (next + 1) % WINDOW;
+        latencyEwma = samples == 0 ? latencyMs : ewma(latencyEwma, latencyMs);
+        if (samples < WINDOW) {
+            samples++;
+        }
+    }
+
+    /**
+     * records a request that was cancelled before it completed. we dont know how long
+     * it would have taken, but it would have been at least this long.
+     * @param elapsedMs time the request was in flight before being cancelled
+     */
+    synchronized void recordCancelled(long elapsedMs) {
+        if (elapsedMs > latencyEwma) {
+            recordLatency(elapsedMs);
+        }
+    }
+
+    synchronized void recordOutcome(boolean failed, boolean disagreed) {
+        errorRate = ewma(errorRate, failed ? 1 : 0);
+        if (!failed) {
+            disagreementRate = ewma(disagreementRate, disagreed ? 1 : 0);
+        }
+    }
+
+    synchronized void recordQueried(long cycle) {
+        lastQueried = cycle;
+    }
+
+    synchronized long getLastQueried() {
+        return lastQueried;
+    }
+
+    /**
+     * @param percentile a number in (0, 1]
+     * @return the given latency percentile (in millis) over the recent window,
+     * or -1 if there are too few samples to tell
+     */
+    synchronized long getLatencyPercentile(double percentile) {
+        if (samples < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * samples) - 1;
+        return sorted[Math.max(0, Math.min(index, samples - 1))];
+    }
+
+    /**
+     * @return a score for this provider, lower is better. providers never queried score 0
+     * so they get a chance to prove themselves.
+     */
+    synchronized double getScore() {
+        return latencyEwma + errorRate * ERROR_PENALTY_MS + disagreementRate * DISAGREEMENT_PENALTY_MS;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("latency %.0fms errors %.2f disagreements %.2f", latencyEwma, errorRate, disagreementRate);
+    }
+
+    private static double ewma(double current, double sample) {
+        return ALPHA * sample + (1 - ALPHA) * current;
+    }
+}
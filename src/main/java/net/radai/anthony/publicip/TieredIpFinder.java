@@ -0,0 +1,92 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.publicip;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Objects;
+
+/**
+ * consults a cheap (but possibly less reliable) finder every time, and only escalates
+ * to an expensive finder when the cheap result changes, is unavailable or has been
+ * trusted for too many cycles in a row.
+ */
+public class TieredIpFinder implements PublicIpFinder, AutoCloseable {
+    private final static Logger LOG = LogManager.getLogger(TieredIpFinder.class);
+    public static final int DEFAULT_MAX_CHEAP_CYCLES = 6;
+    
+    private final PublicIpFinder cheap;
+    private final PublicIpFinder expensive;
+    /**
+     * max number of consecutive cycles to go by the cheap finder alone
+     */
+    private final int maxCheapCycles;
+    private PublicIp lastCheap = null;
+    private PublicIp lastConfirmed = null;
+    private int cheapCycles = 0;
+
+    public TieredIpFinder(PublicIpFinder cheap, PublicIpFinder expensive, int maxCheapCycles) {
+        if (cheap == null || expensive == null || maxCheapCycles < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.cheap = cheap;
+        this.expensive = expensive;
+        this.maxCheapCycles = maxCheapCycles;
+    }
+
+    public TieredIpFinder(PublicIpFinder cheap, PublicIpFinder expensive) {
+        this(cheap, expensive, DEFAULT_MAX_CHEAP_CYCLES);
+    }
+
+    @Override
+    public PublicIp get() throws InterruptedException {
+        PublicIp cheapIp = null;
+        try {
+            cheapIp = cheap.get();
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            LOG.debug("cheap finder " + cheap.getName() + " failed", e);
+        }
+        if (cheapIp != null && lastConfirmed != null && cheapIp.equals(lastCheap) && cheapCycles < maxCheapCycles) {
+            cheapCycles++;
+            return lastConfirmed;
+        }
+        if (LOG.isDebugEnabled()) {
+            if (cheapIp == null) {
+                LOG.debug("no answer from {}, escalating to {}", cheap.getName(), expensive.getName());
+            } else if (!Objects.equals(cheapIp, lastCheap)) {
+                LOG.debug("{} changed from {} to {}, escalating to {}", cheap.getName(), lastCheap, cheapIp, expensive.getName());
+            }
+        }
+        PublicIp confirmed = expensive.get();
+        lastCheap = cheapIp;
+        lastConfirmed = confirmed;
+        cheapCycles = 0;
+        return confirmed;
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (PublicIpFinder finder : new PublicIpFinder[] {cheap, expensive}) {
+            if (finder instanceof AutoCloseable) {
+                ((AutoCloseable) finder).close();
+            }
+        }
+    }
+}
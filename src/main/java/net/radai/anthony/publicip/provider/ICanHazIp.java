@@ -21,9 +21,6 @@ import org.asynchttpclient.Request;
 import org.asynchttpclient.RequestBuilder;
 import org.asynchttpclient.Response;
 
-import java.net.Inet4Address;
-import java.net.InetAddress;
-
 public class ICanHazIp implements PublicIpServiceProvider {
     private static final Request REQUEST = new RequestBuilder().setUrl("http://ipv4.icanhazip.com/").build(); 
     
@@ -34,7 +31,6 @@ public class ICanHazIp implements PublicIpServiceProvider {
 
     @Override
     public PublicIp parse(Response response) throws Exception {
-        String v4 = response.getResponseBody().trim();
-        return new PublicIp((Inet4Address) InetAddress.getByName(v4));
+        return new PublicIp(IpLiteralParser.parseV4(response.getResponseBodyAsByteBuffer()));
     }
 }
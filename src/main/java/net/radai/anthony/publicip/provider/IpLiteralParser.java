@@ -0,0 +1,323 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.publicip.provider;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+/**
+ * scans ip address literals straight out of (ascii) response bytes.
+ * the scanning methods work on absolute indices of the buffer they are given (so they never move
+ * its position), never allocate and never resolve anything - input that isn't a literal is simply
+ * rejected. parsing itself only allocates the resulting address object, but note that getting the
+ * buffer out of a response (Response.getResponseBodyAsByteBuffer()) copies the body into a new array.
+ */
+public final class IpLiteralParser {
+
+    private IpLiteralParser() {
+        //utility class
+    }
+
+    /**
+     * @param buffer response bytes. the region between the buffer's position and limit is parsed
+     * @return the v4 address spelled out by the buffer, ignoring surrounding whitespace
+     * @throws IllegalArgumentException if the buffer does not hold a v4 literal
+     */
+    public static Inet4Address parseV4(ByteBuffer buffer) {
+        long packed = scanV4(buffer, buffer.position(), buffer.limit());
+        if (packed < 0) {
+            throw new IllegalArgumentException("response does not contain a v4 address");
+        }
+        return toInet4((int) packed);
+    }
+
+    /**
+     * finds the first occurrence of open, followed by text free of '&lt;' and then close, and parses
+     * that text (ignoring surrounding whitespace) as a v4 address. this is what the regular
+     * expression "open([^&lt;]*)close" would match.
+     * @throws IllegalArgumentException if no such occurrence exists or the text between the markers
+     * is not a v4 literal
+     */
+    public static Inet4Address parseV4Between(ByteBuffer buffer, byte[] open, byte[] close) {
+        int end = buffer.limit();
+        int from = buffer.position();
+        while (true) {
+            int openAt = indexOf(buffer, open, from, end);
+            if (openAt < 0) {
+                throw new IllegalArgumentException("response does not contain a v4 address");
+            }
+            int start = openAt + open.length;
+            int lt = indexOf(buffer, (byte) '<', start, end);
+            if (lt >= 0 && regionMatches(buffer, lt, close, end)) {
+                long packed = scanV4(buffer, start, lt);
+                if (packed < 0) {
+                    throw new IllegalArgumentException("response does not contain a v4 address");
+                }
+                return toInet4((int) packed);
+            }
+            from = openAt + 1;
+        }
+    }
+
+    /**
+     * @return the v4 address in buffer[from, to), ignoring surrounding whitespace, as an unsigned
+     * 32 bit value, or -1 if the region is not a dotted-quad v4 literal
+     */
+    public static long scanV4(ByteBuffer buffer, int from, int to) {
+        int start = skipWhitespace(buffer, from, to);
+        int end = trimWhitespace(buffer, start, to);
+        if (start >= end) {
+            return -1;
+        }
+        long address = 0;
+        int octets = 0;
+        int i = start;
+        while (true) {
+            int value = 0;
+            int digits = 0;
+            while (i < end && digits <= 3) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                value = value * 10 + digit;
+                digits++;
+                i++;
+            }
+            if (digits == 0 || digits > 3 || value > 255) {
+                return -1;
+            }
+            address = (address << 8) | value;
+            octets++;
+            if (octets == 4) {
+                return i == end ? address : -1;
+            }
+            if (i >= end || buffer.get(i) != '.') {
+                return -1;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * parses the v6 literal in buffer[from, to), ignoring surrounding whitespace. "::" compression
+     * and a trailing dotted-quad (as in "::ffff:1.2.3.4") are supported, zone ids are not.
+     * @param out receives the high 64 bits at [0] and the low 64 bits at [1]. left untouched unless
+     *            the region is valid
+     * @return true if the region is a v6 literal
+     */
+    public static boolean scanV6(ByteBuffer buffer, int from, int to, long[] out) {
+        int start = skipWhitespace(buffer, from, to);
+        int end = trimWhitespace(buffer, start, to);
+        if (start >= end) {
+            return false;
+        }
+        //groups before the "::" (if any) go into head, groups after it go into tail
+        long headHigh = 0;
+        long headLow = 0;
+        long tailHigh = 0;
+        long tailLow = 0;
+        int groups = 0;
+        int compressedAt = -1;
+        int i = start;
+        if (buffer.get(i) == ':') {
+            if (i + 1 >= end || buffer.get(i + 1) != ':') {
+                return false;
+            }
+            compressedAt = 0;
+            i += 2;
+        }
+        while (i < end) {
+            int groupEnd = i;
+            boolean dotted = false;
+            while (groupEnd < end && buffer.get(groupEnd) != ':') {
+                dotted |= buffer.get(groupEnd) == '.';
+                groupEnd++;
+            }
+            if (dotted) {
+                //an embedded v4 address must come last and takes up 2 groups
+                long v4 = groupEnd == end && groups <= 6 ? scanV4(buffer, i, end) : -1;
+                if (v4 < 0) {
+                    return false;
+                }
+                for (int shift = 16; shift >= 0; shift -= 16) {
+                    int group = (int) (v4 >>> shift) & 0xFFFF;
+                    if (compressedAt < 0) {
+                        headHigh = (headHigh << 16) | (headLow >>> 48);
+                        headLow = (headLow << 16) | group;
+                    } else {
+                        tailHigh = (tailHigh << 16) | (tailLow >>> 48);
+                        tailLow = (tailLow << 16) | group;
+                    }
+                }
+                groups += 2;
+                break;
+            }
+            int length = groupEnd - i;
+            if (length == 0 || length > 4 || groups == 8) {
+                return false;
+            }
+            int group = 0;
+            for (int j = i; j < groupEnd; j++) {
+                int digit = hexValue(buffer.get(j));
+                if (digit < 0) {
+                    return false;
+                }
+                group = (group << 4) | digit;
+            }
+            if (compressedAt < 0) {
+                headHigh = (headHigh << 16) | (headLow >>> 48);
+                headLow = (headLow << 16) | group;
+            } else {
+                tailHigh = (tailHigh << 16) | (tailLow >>> 48);
+                tailLow = (tailLow << 16) | group;
+            }
+            groups++;
+            if (groupEnd == end) {
+                break;
+            }
+            //buffer[groupEnd] is a ':'
+            if (groupEnd + 1 < end && buffer.get(groupEnd + 1) == ':') {
+                if (compressedAt >= 0) {
+                    return false; //only a single "::" allowed
+                }
+                compressedAt = groups;
+                i = groupEnd + 2;
+            } else {
+                i = groupEnd + 1;
+                if (i == end) {
+                    return false; //trailing single ':'
+                }
+            }
+        }
+        if (compressedAt < 0) {
+            if (groups != 8) {
+                return false;
+            }
+        } else {
+            if (groups > 7) {
+                return false;
+            }
+            //slide the head groups up to the top, leaving zeros where the "::" was
+            for (int k = compressedAt; k < 8; k++) {
+                headHigh = (headHigh << 16) | (headLow >>> 48);
+                headLow = headLow << 16;
+            }
+            headHigh |= tailHigh;
+            headLow |= tailLow;
+        }
+        out[0] = headHigh;
+        out[1] = headLow;
+        return true;
+    }
+
+    /**
+     * @return the index of the first occurrence of needle within buffer[from, to), or -1
+     */
+    public static int indexOf(ByteBuffer buffer, byte[] needle, int from, int to) {
+        int last = to - needle.length;
+        for (int i = from; i <= last; i++) {
+            if (regionMatches(buffer, i, needle, to)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static Inet4Address toInet4(int address) {
+        byte[] bytes = {
+                (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address
+        };
+        try {
+            return (Inet4Address) InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("4 bytes should always make a valid address", e);
+        }
+    }
+
+    public static Inet6Address toInet6(long high, long low) {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (high >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (low >>> (56 - 8 * i));
+        }
+        try {
+            //unlike InetAddress.getByAddress() this does not turn v4-mapped addresses into v4 ones
+            return Inet6Address.getByAddress(null, bytes, -1);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("16 bytes should always make a valid address", e);
+        }
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(ByteBuffer buffer, int at, byte[] expected, int to) {
+        if (at + expected.length > to) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(at + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        while (i < to && isWhitespace(buffer.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimWhitespace(ByteBuffer buffer, int from, int to) {
+        int i = to;
+        while (i > from && isWhitespace(buffer.get(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        //same as String.trim()
+        return b >= 0 && b <= ' ';
+    }
+
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+}
@@ -21,6 +21,19 @@ import org.asynchttpclient.Request;
 import org.asynchttpclient.Response;
 
 public interface PublicIpServiceProvider {
+    int DEFAULT_TIMEOUT_MS = 5000;
+    
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+    
     Request buildRequest();
     PublicIp parse(Response response) throws Exception;
+
+    /**
+     * @return the longest (in millis) a single request to this provider is allowed to take
+     */
+    default int getTimeoutMs() {
+        return DEFAULT_TIMEOUT_MS;
+    }
 }
@@ -21,14 +21,12 @@ import org.asynchttpclient.Request;
 import org.asynchttpclient.RequestBuilder;
 import org.asynchttpclient.Response;
 
-import java.net.Inet4Address;
-import java.net.InetAddress;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.charset.StandardCharsets;
 
 public class WhatIp implements PublicIpServiceProvider {
     private static final Request REQUEST = new RequestBuilder().setUrl("http://ipv4.whatip.me/").build();
-    private static final Pattern PATTERN = Pattern.compile("<body>([^<]*)</body>");
+    private static final byte[] OPEN = "<body>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "</body>".getBytes(StandardCharsets.US_ASCII);
 
     @Override
     public Request buildRequest() {
@@ -37,12 +35,6 @@ public class WhatIp implements PublicIpServiceProvider {
 
     @Override
     public PublicIp parse(Response response) throws Exception {
-        String body = response.getResponseBody().trim();
-        Matcher matcher = PATTERN.matcher(body);
-        if (!matcher.find()) {
-            throw new IllegalArgumentException("unable to parse result out of " + response);
-        }
-        String v4 = matcher.group(1).trim();
-        return new PublicIp((Inet4Address) InetAddress.getByName(v4));
+        return new PublicIp(IpLiteralParser.parseV4Between(response.getResponseBodyAsByteBuffer(), OPEN, CLOSE));
     }
 }
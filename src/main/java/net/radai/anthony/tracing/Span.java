@@ -0,0 +1,79 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.tracing;
+
+import org.asynchttpclient.Response;
+
+/**
+ * something being timed - a phase of a poll cycle or an outbound request. finished exactly once,
+ * from whatever thread happens to find out it's over
+ */
+public interface Span {
+    /**
+     * what {@link Tracing} hands out when nothing is being recorded
+     */
+    Span NOP = new Span() {
+        @Override
+        public boolean isRecording() {
+            return false;
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        @Override
+        public void finish(int status, long sentBytes, long receivedBytes) {
+        }
+
+        @Override
+        public void fail(Throwable error) {
+        }
+    };
+
+    /**
+     * @return false if finishing this span does nothing, in which case there's no point working out what to finish it with
+     */
+    boolean isRecording();
+
+    void finish();
+
+    /**
+     * @param status http status code
+     * @param sentBytes size of the request body, or -1 if not known
+     * @param receivedBytes size of the response body, or -1 if not known
+     */
+    void finish(int status, long sentBytes, long receivedBytes);
+
+    void fail(Throwable error);
+
+    default void finish(Response response, long sentBytes) {
+        finish(response.getStatusCode(), sentBytes, isRecording() ? bodySize(response) : -1);
+    }
+
+    private static long bodySize(Response response) {
+        String contentLength = response.getHeader("Content-Length");
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                //fall through to counting
+            }
+        }
+        return response.hasResponseBody() ? response.getResponseBodyAsBytes().length : 0;
+    }
+}
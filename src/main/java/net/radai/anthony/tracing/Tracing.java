@@ -0,0 +1,52 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.tracing;
+
+/**
+ * emits java flight recorder events for the phases of every poll cycle and for every outbound request,
+ * so a recording shows where a slow cycle's time went (next to GC and thread activity).
+ * custom JFR events need java 11+, so this is the version for older JVMs, which records nothing -
+ * when built on java 11+ the (multi-release) jar also carries one that actually works.
+ */
+public final class Tracing {
+
+    private Tracing() {
+        //utility class
+    }
+
+    public static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * @param cycle poll cycle number
+     * @param phase what part of the cycle this is
+     */
+    public static Span phase(long cycle, String phase) {
+        return Span.NOP;
+    }
+
+    /**
+     * @param service who the request is for (a public ip provider, godaddy, mailgun)
+     * @param method http method
+     * @param url request url
+     * @param domain the domain the request is about, or null
+     */
+    public static Span request(String service, String method, String url, String domain) {
+        return Span.NOP;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("net.radai.anthony.CyclePhase")
+@Label("Cycle Phase")
+@Category("Anthony")
+@StackTrace(false)
+@Description("A phase of a poll cycle")
+class PhaseEvent extends Event implements Span {
+    @Label("Cycle")
+    long cycle;
+    @Label("Phase")
+    String phase;
+    @Label("Error")
+    String error;
+
+    @Override
+    public boolean isRecording() {
+        return true;
+    }
+
+    @Override
+    public void finish() {
+        commit();
+    }
+
+    @Override
+    public void finish(int status, long sentBytes, long receivedBytes) {
+        commit();
+    }
+
+    @Override
+    public void fail(Throwable error) {
+        this.error = String.valueOf(error);
+        commit();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("net.radai.anthony.OutboundRequest")
+@Label("Outbound Request")
+@Category("Anthony")
+@StackTrace(false)
+@Description("An http request to a public ip provider, godaddy or mailgun. committed by whichever thread completed it")
+class RequestEvent extends Event implements Span {
+    @Label("Service")
+    String service;
+    @Label("Method")
+    String method;
+    @Label("URL")
+    String url;
+    @Label("Domain")
+    String domain;
+    @Label("Status")
+    int status = -1;
+    @Label("Bytes Sent")
+    @DataAmount(DataAmount.BYTES)
+    long sentBytes = -1;
+    @Label("Bytes Received")
+    @DataAmount(DataAmount.BYTES)
+    long receivedBytes = -1;
+    @Label("Error")
+    String error;
+
+    @Override
+    public boolean isRecording() {
+        return true;
+    }
+
+    @Override
+    public void finish() {
+        commit();
+    }
+
+    @Override
+    public void finish(int status, long sentBytes, long receivedBytes) {
+        this.status = status;
+        this.sentBytes = sentBytes;
+        this.receivedBytes = receivedBytes;
+        commit();
+    }
+
+    @Override
+    public void fail(Throwable error) {
+        this.error = String.valueOf(error);
+        commit();
+    }
+}
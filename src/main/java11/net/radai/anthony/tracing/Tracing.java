@@ -0,0 +1,67 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.tracing;
+
+/**
+ * emits java flight recorder events for the phases of every poll cycle and for every outbound request.
+ * this is the java 11+ version, see src/main/java for the fallback. while no recording is running
+ * (or the events are disabled in it) this costs next to nothing - the events arent even begun.
+ */
+public final class Tracing {
+
+    private Tracing() {
+        //utility class
+    }
+
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * @param cycle poll cycle number
+     * @param phase what part of the cycle this is
+     */
+    public static Span phase(long cycle, String phase) {
+        PhaseEvent event = new PhaseEvent();
+        if (!event.isEnabled()) {
+            return Span.NOP;
+        }
+        event.cycle = cycle;
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param service who the request is for (a public ip provider, godaddy, mailgun)
+     * @param method http method
+     * @param url request url
+     * @param domain the domain the request is about, or null
+     */
+    public static Span request(String service, String method, String url, String domain) {
+        RequestEvent event = new RequestEvent();
+        if (!event.isEnabled()) {
+            return Span.NOP;
+        }
+        event.service = service;
+        event.method = method;
+        event.url = url;
+        event.domain = domain;
+        event.begin();
+        return event;
+    }
+}
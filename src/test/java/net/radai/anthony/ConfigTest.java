@@ -16,10 +16,13 @@
 
 package net.radai.anthony;
 
+import net.radai.anthony.dns.PropagationVerifier;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
 public class ConfigTest {
@@ -32,5 +35,75 @@ public class ConfigTest {
         }
         Config config = Config.deserailize(props);
         Assert.assertNotNull(config);
+        Assert.assertEquals(HttpConfig.DEFAULT_IO_THREADS, config.getHttp().getIoThreads());
+        Assert.assertEquals(-1, config.getHttp().getMaxConnectionsPerHost());
+        Assert.assertEquals(ZoneCacheConfig.DEFAULT_TTL_MS, config.getZoneCache().getTtlMs());
+        Assert.assertNull(config.getZoneCache().getSnapshotDir());
+        Assert.assertEquals(PropagationVerifier.DEFAULT_TIMEOUT_MS, config.getPropagationTimeoutMs());
+        Assert.assertNull(config.getStateFile());
+        Assert.assertEquals(FlapDampingConfig.DEFAULT_STABLE_DETECTIONS, config.getFlapDamping().getStableDetections());
+        Assert.assertEquals(FlapDampingConfig.DEFAULT_HALF_LIFE_MS, config.getFlapDamping().getHalfLifeMs());
+        Assert.assertFalse(config.isVirtualThreads());
+        Assert.assertEquals(0, config.getMetricsPort());
+        Assert.assertEquals(Config.DEFAULT_METRICS_HOST, config.getMetricsHost());
+    }
+
+    @Test
+    public void testParseMultipleAccounts() throws Exception {
+        Properties props = new Properties();
+        try (InputStream is = this.getClass().getClassLoader().getResourceAsStream("multiaccount.properties")) {
+            props.load(is);
+        }
+        Config config = Config.deserailize(props);
+        Assert.assertEquals(8, config.getUpdateThreads());
+        Assert.assertEquals(9137, config.getMetricsPort());
+        Assert.assertEquals("0.0.0.0", config.getMetricsHost());
+        List<AccountConfig> accounts = config.getAccounts();
+        Assert.assertEquals(3, accounts.size());
+        Assert.assertEquals(Config.DEFAULT_ACCOUNT, accounts.get(0).getName());
+        Assert.assertEquals(Arrays.asList("what.ever", "also.what.ever", "and.this.one"), accounts.get(0).getDomains());
+        Assert.assertEquals("home", accounts.get(1).getName());
+        Assert.assertEquals(AccountConfig.DEFAULT_MAX_CONCURRENT_UPDATES, accounts.get(1).getMaxConcurrentUpdates());
+        Assert.assertEquals("workKey", accounts.get(2).getGodaddyKey());
+        Assert.assertEquals(5, accounts.get(2).getMaxConcurrentUpdates());
+        Assert.assertEquals(Arrays.asList("a.work.place", "b.work.place"), accounts.get(2).getDomains());
+        
+        //round trip
+        Config copy = Config.deserailize(config.serialize());
+        Assert.assertEquals(3, copy.getAccounts().size());
+        Assert.assertEquals(accounts.get(2).getDomains(), copy.getAccounts().get(2).getDomains());
+        Assert.assertEquals("0.0.0.0", copy.getMetricsHost());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateDomain() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("pollIntervalMs", "1000");
+        props.setProperty("godaddyKey", "foo");
+        props.setProperty("godaddySecret", "bar");
+        props.setProperty("domain", "what.ever");
+        props.setProperty("accounts", "other");
+        props.setProperty("account.other.godaddyKey", "foo");
+        props.setProperty("account.other.godaddySecret", "bar");
+        props.setProperty("account.other.domains", "what.ever");
+        Config.deserailize(props);
+    }
+
+    @Test
+    public void testHttpMaxConnectionsPerHost() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("httpMaxConnectionsPerHost", "8");
+        HttpConfig http = HttpConfig.deserialize(props);
+        Assert.assertEquals(8, http.getMaxConnectionsPerHost());
+        Properties copy = new Properties();
+        new HttpConfig().serialize(copy);
+        Assert.assertEquals(-1, HttpConfig.deserialize(copy).getMaxConnectionsPerHost());
+        props.setProperty("httpMaxConnectionsPerHost", "0");
+        try {
+            HttpConfig.deserialize(props);
+            Assert.fail("should have rejected 0");
+        } catch (IllegalArgumentException expected) {
+            //expected
+        }
     }
 }
@@ -0,0 +1,61 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import net.radai.anthony.notifications.Notification;
+import net.radai.anthony.publicip.PublicIp;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.List;
+
+public class ConnectivityTest {
+
+    @Test
+    public void testTransitionsReportedOnce() throws Exception {
+        Connectivity connectivity = new Connectivity();
+        Instant now = Instant.now();
+        Assert.assertTrue(connectivity.onDetection(now, ip("1.2.3.4")).isEmpty());
+        Assert.assertTrue(connectivity.isOnline());
+        List<Notification> offline = connectivity.onDetection(now, null);
+        Assert.assertEquals(1, offline.size());
+        Assert.assertEquals("went offline", offline.get(0).getText());
+        Assert.assertFalse(connectivity.isOnline());
+        Assert.assertTrue(connectivity.onDetection(now, null).isEmpty());
+        List<Notification> online = connectivity.onDetection(now, ip("1.2.3.4"));
+        Assert.assertEquals(1, online.size());
+        Assert.assertTrue(online.get(0).getText().startsWith("came back online"));
+        Assert.assertTrue(connectivity.onDetection(now, ip("1.2.3.4")).isEmpty());
+    }
+
+    @Test
+    public void testComingBackWithNewIp() throws Exception {
+        Connectivity connectivity = new Connectivity();
+        Instant now = Instant.now();
+        connectivity.onDetection(now, ip("1.2.3.4"));
+        connectivity.onDetection(now, null);
+        //dns updates will report the new ip
+        Assert.assertTrue(connectivity.onDetection(now, ip("5.6.7.8")).isEmpty());
+    }
+
+    private static PublicIp ip(String v4) throws Exception {
+        return new PublicIp((Inet4Address) InetAddress.getByName(v4));
+    }
+}
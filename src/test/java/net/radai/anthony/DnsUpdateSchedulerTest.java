@@ -0,0 +1,189 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import net.radai.anthony.dns.DnsUpdater;
+import net.radai.anthony.metrics.MetricsRegistry;
+import net.radai.anthony.notifications.Notification;
+import net.radai.anthony.publicip.PublicIp;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DnsUpdateSchedulerTest {
+    private final DnsUpdateScheduler scheduler = new DnsUpdateScheduler(8);
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void teardown() {
+        scheduler.close();
+    }
+
+    @Test
+    public void testConcurrencyCappedPerAccount() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        Set<String> updated = ConcurrentHashMap.newKeySet();
+        scheduler.addAccount("a", (domain, addr, wildcards) -> {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            Thread.sleep(20);
+            inFlight.decrementAndGet();
+            updated.add(domain);
+            return true;
+        }, 2, Arrays.asList("1.com", "2.com", "3.com", "4.com", "5.com", "6.com"));
+        List<Notification> notifications = scheduler.update(ip("1.2.3.4"), Instant.now());
+        Assert.assertEquals(6, notifications.size());
+        Assert.assertEquals(6, updated.size());
+        Assert.assertTrue(maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void testOnlyOutdatedDomainsAreUpdated() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        scheduler.addAccount("a", (domain, addr, wildcards) -> {
+            calls.incrementAndGet();
+            return true;
+        }, 1, Arrays.asList("1.com", "2.com"));
+        scheduler.update(ip("1.2.3.4"), Instant.now());
+        Assert.assertEquals(2, calls.get());
+        Assert.assertTrue(scheduler.update(ip("1.2.3.4"), Instant.now()).isEmpty());
+        Assert.assertEquals(2, calls.get());
+        scheduler.update(ip("5.6.7.8"), Instant.now());
+        Assert.assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void testFailedUpdatesAreRetriedButReportedOnce() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        scheduler.addAccount("a", (domain, addr, wildcards) -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new IllegalStateException("nope");
+            }
+            return true;
+        }, 1, Arrays.asList("1.com"));
+        Assert.assertEquals(1, scheduler.update(ip("1.2.3.4"), Instant.now()).size());
+        Assert.assertEquals(0, scheduler.update(ip("1.2.3.4"), Instant.now()).size());
+        List<Notification> notifications = scheduler.update(ip("1.2.3.4"), Instant.now());
+        Assert.assertEquals(1, notifications.size());
+        Assert.assertTrue(notifications.get(0).getText().startsWith("connected as"));
+        Assert.assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testUpdatesAreMeasured() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        scheduler.addAccount("measured", (domain, addr, wildcards) -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("nope");
+            }
+            return calls.get() == 2;
+        }, 1, Arrays.asList("measured.com"));
+        scheduler.update(ip("1.2.3.4"), Instant.now());
+        scheduler.update(ip("1.2.3.4"), Instant.now());
+        scheduler.update(ip("5.6.7.8"), Instant.now());
+        String scrape = MetricsRegistry.shared().scrape();
+        String labels = "account=\"measured\",domain=\"measured.com\"";
+        Assert.assertTrue(scrape, scrape.contains("anthony_dns_updates_total{" + labels + ",result=\"failed\"} 1\n"));
+        Assert.assertTrue(scrape, scrape.contains("anthony_dns_updates_total{" + labels + ",result=\"changed\"} 1\n"));
+        Assert.assertTrue(scrape, scrape.contains("anthony_dns_updates_total{" + labels + ",result=\"unchanged\"} 1\n"));
+        Assert.assertTrue(scrape, scrape.contains("anthony_dns_update_seconds_count{" + labels + "} 3\n"));
+    }
+
+    @Test
+    public void testAsyncUpdatersDontHoldThreads() throws Exception {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try (DnsUpdateScheduler singleThreaded = new DnsUpdateScheduler(1)) {
+            AtomicInteger inFlight = new AtomicInteger();
+            AtomicInteger maxInFlight = new AtomicInteger();
+            singleThreaded.addAccount("a", new DnsUpdater() {
+                @Override
+                public boolean update(String domain, PublicIp addr, boolean updateWildcardAsWell) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public CompletableFuture<Boolean> updateAsync(String domain, PublicIp addr, boolean updateWildcardAsWell) {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    CompletableFuture<Boolean> result = new CompletableFuture<>();
+                    timer.schedule(() -> {
+                        inFlight.decrementAndGet();
+                        result.complete(true);
+                    }, 50, TimeUnit.MILLISECONDS);
+                    return result;
+                }
+            }, 4, Arrays.asList("1.com", "2.com", "3.com", "4.com", "5.com", "6.com", "7.com", "8.com"));
+            Assert.assertEquals(8, singleThreaded.update(ip("1.2.3.4"), Instant.now()).size());
+            Assert.assertEquals(4, maxInFlight.get());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testUpToDateDomainsNotUpdatedAfterRestart() throws Exception {
+        File file = new File(folder.getRoot(), "state");
+        AtomicInteger calls = new AtomicInteger();
+        DnsUpdater updater = (domain, addr, wildcards) -> {
+            calls.incrementAndGet();
+            return true;
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            try (StateJournal journal = new StateJournal(file)) {
+                DnsUpdateScheduler before = new DnsUpdateScheduler(executor, null, journal);
+                before.addAccount("a", updater, 1, Arrays.asList("1.com", "2.com"));
+                before.update(ip("1.2.3.4"), Instant.now());
+                Assert.assertEquals(2, calls.get());
+            }
+            try (StateJournal journal = new StateJournal(file)) {
+                DnsUpdateScheduler after = new DnsUpdateScheduler(executor, null, journal);
+                after.addAccount("a", updater, 1, Arrays.asList("1.com", "2.com", "3.com"));
+                List<Notification> notifications = after.update(ip("1.2.3.4"), Instant.now());
+                Assert.assertEquals(3, calls.get()); //only the new domain
+                Assert.assertEquals(1, notifications.size());
+                notifications = after.update(ip("5.6.7.8"), Instant.now());
+                Assert.assertEquals(6, calls.get());
+                Assert.assertTrue(notifications.get(0).getText().startsWith("ip changed from v4: 1.2.3.4"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static PublicIp ip(String v4) throws Exception {
+        return new PublicIp((Inet4Address) InetAddress.getByName(v4));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import net.radai.anthony.publicip.PublicIp;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.time.Instant;
+
+public class FlapDamperTest {
+    private final Instant start = Instant.parse("2018-01-01T00:00:00Z");
+
+    @Test
+    public void testUndampedByDefault() throws Exception {
+        FlapDamper damper = new FlapDamper(new FlapDampingConfig());
+        Assert.assertEquals(ip("1.1.1.1"), damper.onDetection(start, ip("1.1.1.1")));
+        Assert.assertEquals(ip("2.2.2.2"), damper.onDetection(start.plusSeconds(60), ip("2.2.2.2")));
+    }
+
+    @Test
+    public void testNewIpMustHoldForSeveralDetections() throws Exception {
+        FlapDamper damper = new FlapDamper(3, 0, 0);
+        Assert.assertEquals(ip("1.1.1.1"), damper.onDetection(start, ip("1.1.1.1"))); //boot
+        Assert.assertEquals(ip("1.1.1.1"), damper.onDetection(start.plusSeconds(1), ip("2.2.2.2")));
+        Assert.assertEquals(ip("1.1.1.1"), damper.onDetection(start.plusSeconds(2), ip("2.2.2.2")));
+        Assert.assertEquals(ip("1.1.1.1"), damper.onDetection(start.plusSeconds(3), ip("1.1.1.1"))); //blip
+        Assert.assertEquals(ip("1.1.1.1"), damper.onDetection(start.plusSeconds(4), ip("2.2.2.2")));
+        Assert.assertEquals(ip("1.1.1.1"), damper.onDetection(start.plusSeconds(5), ip("2.2.2.2")));
+        Assert.assertEquals(ip("2.2.2.2"), damper.onDetection(start.plusSeconds(6), ip("2.2.2.2")));
+    }
+
+    @Test
+    public void testNewIpMustHoldForAWhile() throws Exception {
+        FlapDamper damper = new FlapDamper(1, 60000, 0);
+        damper.onDetection(start, ip("1.1.1.1"));
+        Assert.assertEquals(ip("1.1.1.1"), damper.onDetection(start.plusSeconds(10), ip("2.2.2.2")));
+        Assert.assertEquals(ip("1.1.1.1"), damper.onDetection(start.plusSeconds(69), ip("2.2.2.2")));
+        Assert.assertEquals(ip("2.2.2.2"), damper.onDetection(start.plusSeconds(70), ip("2.2.2.2")));
+    }
+
+    @Test
+    public void testFlappingIpsHeldOff() throws Exception {
+        FlapDamper damper = new FlapDamper(1, 0, 900000);
+        PublicIp a = ip("1.1.1.1");
+        PublicIp b = ip("2.2.2.2");
+        Instant now = start;
+        damper.onDetection(now, a);
+        //each reappearance costs a penalty, the 3rd one (in quick succession) for the same ip crosses the limit
+        Assert.assertEquals(b, damper.onDetection(now = now.plusSeconds(60), b));
+        Assert.assertEquals(a, damper.onDetection(now = now.plusSeconds(60), a));
+        Assert.assertEquals(b, damper.onDetection(now = now.plusSeconds(60), b));
+        Assert.assertEquals(a, damper.onDetection(now = now.plusSeconds(60), a));
+        Assert.assertEquals(a, damper.onDetection(now = now.plusSeconds(60), b));
+        //b has to settle down (penalty decays under the reuse limit, 2 half lives) before DNS follows it
+        Assert.assertEquals(a, damper.onDetection(now = now.plusSeconds(1200), b));
+        Assert.assertEquals(b, damper.onDetection(now.plusSeconds(1200), b));
+    }
+
+    @Test
+    public void testPenaltiesDecay() throws Exception {
+        FlapDamper damper = new FlapDamper(1, 0, 900000);
+        PublicIp a = ip("1.1.1.1");
+        PublicIp b = ip("2.2.2.2");
+        Instant now = start;
+        damper.onDetection(now, a);
+        //changes an hour apart are never held off
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(b, damper.onDetection(now = now.plusSeconds(3600), b));
+            Assert.assertEquals(a, damper.onDetection(now = now.plusSeconds(3600), a));
+        }
+    }
+
+    private static PublicIp ip(String v4) throws Exception {
+        return new PublicIp((Inet4Address) InetAddress.getByName(v4));
+    }
+}
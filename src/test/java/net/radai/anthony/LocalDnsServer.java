@@ -0,0 +1,180 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a throwaway (udp only) DNS server on the loopback interface, serving A/AAAA records
+ * for tests that need to stand in for real name servers
+ */
+public class LocalDnsServer implements AutoCloseable {
+    private final DatagramSocket socket;
+    private final Thread thread;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, List<Record>> records = new ConcurrentHashMap<>();
+    private final List<String> queries = new CopyOnWriteArrayList<>();
+    private final AtomicInteger toDrop = new AtomicInteger();
+    private volatile long delayMs = 0;
+
+    public LocalDnsServer() throws IOException {
+        socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        thread = new Thread(this::serve, "local-dns-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public String getHost() {
+        return socket.getLocalAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * replaces whatever addresses the given name had
+     * @param hostname name
+     * @param ttl ttl (in seconds) of the records
+     * @param addresses v4 and/or v6 literals. none to make the name go away
+     */
+    public LocalDnsServer serve(String hostname, long ttl, String... addresses) throws IOException {
+        Name name = Name.fromString(hostname, Name.root);
+        List<Record> answers = new ArrayList<>();
+        for (String address : addresses) {
+            InetAddress parsed = InetAddress.getByName(address);
+            if (parsed.getAddress().length == 4) {
+                answers.add(new ARecord(name, DClass.IN, ttl, parsed));
+            } else {
+                answers.add(new AAAARecord(name, DClass.IN, ttl, parsed));
+            }
+        }
+        if (answers.isEmpty()) {
+            records.remove(name.toString().toLowerCase());
+        } else {
+            records.put(name.toString().toLowerCase(), answers);
+        }
+        return this;
+    }
+
+    /**
+     * @return "name type" of every query received so far
+     */
+    public List<String> getQueries() {
+        return new ArrayList<>(queries);
+    }
+
+    public void clearQueries() {
+        queries.clear();
+    }
+
+    /**
+     * silently ignore the next few queries
+     */
+    public void drop(int queries) {
+        toDrop.set(queries);
+    }
+
+    public void setDelayMs(long delayMs) {
+        this.delayMs = delayMs;
+    }
+
+    private void serve() {
+        byte[] buffer = new byte[Message.MAXLENGTH];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+                Message query = new Message(Arrays.copyOf(packet.getData(), packet.getLength()));
+                Record question = query.getQuestion();
+                queries.add(question.getName() + " " + Type.string(question.getType()));
+                if (toDrop.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+                    continue;
+                }
+                SocketAddress client = packet.getSocketAddress();
+                //answered concurrently, so (delayed) queries dont wait on each other
+                executor.execute(() -> {
+                    try {
+                        if (delayMs > 0) {
+                            Thread.sleep(delayMs);
+                        }
+                        byte[] response = answer(query).toWire();
+                        socket.send(new DatagramPacket(response, response.length, client));
+                    } catch (IOException | InterruptedException e) {
+                        //closed
+                    }
+                });
+            } catch (SocketException e) {
+                return; //closed
+            } catch (IOException e) {
+                //bad query, ignore
+            }
+        }
+    }
+    
+    private Message answer(Message query) {
+        Message response = new Message(query.getHeader().getID());
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setFlag(Flags.AA);
+        Record question = query.getQuestion();
+        response.addRecord(question, Section.QUESTION);
+        List<Record> known = records.get(question.getName().toString().toLowerCase());
+        if (known == null) {
+            response.getHeader().setRcode(Rcode.NXDOMAIN);
+            return response;
+        }
+        for (Record record : known) {
+            if (record.getType() == question.getType()) {
+                response.addRecord(record, Section.ANSWER);
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+        thread.interrupt();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import net.radai.anthony.notifications.Notification;
+import net.radai.anthony.notifications.NotificationSender;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NotifierTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    //everything runs inline, so the notifier is done with whatever add() or setOnline() set off by the time they return
+    private final Executor executor = Runnable::run;
+    private final AtomicLong now = new AtomicLong(1000000);
+    private final Clock clock = new Clock() {
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(now.get());
+        }
+    };
+    private final List<List<Notification>> sent = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean failing = new AtomicBoolean(false);
+    private final NotificationSender sender = notifications -> {
+        if (failing.get()) {
+            throw new IllegalStateException("mail is down");
+        }
+        sent.add(new ArrayList<>(notifications));
+    };
+
+    @Test
+    public void testHeldWhileOffline() throws Exception {
+        Notifier notifier = immediate();
+        notifier.add(new Notification(clock.instant(), "booted"));
+        notifier.add(new Notification(clock.instant(), "went offline"));
+        Assert.assertTrue(sent.isEmpty());
+        notifier.setOnline(true);
+        Assert.assertEquals(1, sent.size());
+        Assert.assertEquals(2, sent.get(0).size());
+    }
+
+    @Test
+    public void testFailuresRetriedAndReportedOnce() throws Exception {
+        Notifier notifier = immediate();
+        notifier.setOnline(true);
+        failing.set(true);
+        notifier.add(new Notification(clock.instant(), "a"));
+        now.addAndGet(1000);
+        notifier.setOnline(true);
+        now.addAndGet(2000);
+        failing.set(false);
+        notifier.setOnline(true);
+        Assert.assertEquals(1, sent.size());
+        List<Notification> batch = sent.get(0);
+        Assert.assertEquals(2, batch.size());
+        Assert.assertEquals("a", batch.get(0).getText());
+        Assert.assertTrue(batch.get(1).getText().startsWith("unable to send notifications"));
+    }
+
+    @Test
+    public void testBatchedWithinWindow() throws Exception {
+        Notifier notifier = new Notifier(sender, executor, clock, 100, null, 30000, 50, 60000, 60000);
+        notifier.setOnline(true);
+        notifier.add(new Notification(clock.instant(), "a"));
+        now.addAndGet(10000);
+        notifier.add(new Notification(clock.instant(), "b"));
+        notifier.setOnline(true);
+        Assert.assertTrue(sent.isEmpty());
+        now.addAndGet(20000);
+        notifier.setOnline(true);
+        Assert.assertEquals(1, sent.size());
+        Assert.assertEquals(2, sent.get(0).size());
+    }
+
+    @Test
+    public void testFullBatchSentRightAway() throws Exception {
+        Notifier notifier = new Notifier(sender, executor, clock, 100, null, 60000, 3, 60000, 60000);
+        notifier.setOnline(true);
+        notifier.add(new Notification(clock.instant(), "a"));
+        notifier.add(new Notification(clock.instant(), "b"));
+        Assert.assertTrue(sent.isEmpty());
+        notifier.add(new Notification(clock.instant(), "c"));
+        Assert.assertEquals(1, sent.size());
+        Assert.assertEquals(3, sent.get(0).size());
+    }
+
+    @Test
+    public void testFlappingCoalesced() throws Exception {
+        Notifier notifier = immediate();
+        Instant start = Instant.parse("2018-01-01T00:00:00Z");
+        notifier.add(new Notification(start, "booted"));
+        for (int i = 0; i < 3; i++) {
+            notifier.add(new Notification(start.plusSeconds(2 * i + 1), "went offline", Connectivity.COALESCE_KEY));
+            notifier.add(new Notification(start.plusSeconds(2 * i + 2), "came back online", Connectivity.COALESCE_KEY));
+        }
+        notifier.setOnline(true);
+        Assert.assertEquals(1, sent.size());
+        List<Notification> batch = sent.get(0);
+        Assert.assertEquals(2, batch.size());
+        Assert.assertEquals("booted", batch.get(0).getText());
+        Notification summary = batch.get(1);
+        Assert.assertEquals(6, summary.getOccurrences());
+        Assert.assertEquals(start.plusSeconds(1), summary.getFirstTimestamp());
+        Assert.assertEquals(start.plusSeconds(6), summary.getTimestamp());
+        Assert.assertEquals("came back online (6 similar notifications since 2018-01-01T00:00:01Z)", summary.getText());
+    }
+
+    @Test
+    public void testFailedBatchesBackOff() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        NotificationSender down = notifications -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("mail is down");
+        };
+        Notifier notifier = new Notifier(down, executor, clock, 100, null, 0, 50, 60000, 60000);
+        notifier.setOnline(true);
+        notifier.add(new Notification(clock.instant(), "a"));
+        Assert.assertEquals(1, attempts.get());
+        for (int i = 0; i < 10; i++) {
+            now.addAndGet(1000);
+            notifier.setOnline(true);
+            notifier.add(new Notification(clock.instant(), "b" + i));
+        }
+        Assert.assertEquals(1, attempts.get());
+        now.addAndGet(50000);
+        notifier.setOnline(true);
+        Assert.assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testPendingSurviveRestart() throws Exception {
+        File file = folder.newFile();
+        try (StateJournal journal = new StateJournal(file)) {
+            Notifier notifier = new Notifier(sender, executor, clock, 100, journal, 0, 50, 60000, 60000);
+            notifier.add(new Notification(clock.instant(), "booted"));
+            notifier.add(new Notification(clock.instant(), "went offline", Connectivity.COALESCE_KEY));
+            notifier.add(new Notification(clock.instant(), "came back online", Connectivity.COALESCE_KEY));
+            Assert.assertTrue(sent.isEmpty());
+        }
+        try (StateJournal journal = new StateJournal(file)) {
+            Notifier notifier = new Notifier(sender, executor, clock, 100, journal, 0, 50, 60000, 60000);
+            notifier.setOnline(true);
+            Assert.assertEquals(1, sent.size());
+            Assert.assertEquals(2, sent.get(0).size());
+            Assert.assertEquals(2, sent.get(0).get(1).getOccurrences());
+            Assert.assertTrue(journal.getPending().isEmpty());
+        }
+    }
+    
+    private Notifier immediate() {
+        return new Notifier(sender, executor, clock, 100, null, 0, 50, 1000, 10000);
+    }
+}
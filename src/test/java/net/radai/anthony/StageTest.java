@@ -0,0 +1,114 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StageTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSlowStageOnlySeesLatest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> firstBlocked = new CompletableFuture<>();
+        CountDownLatch done = new CountDownLatch(2);
+        Stage<Integer> stage = new Stage<>("test", executor, 1, batch -> {
+            batches.add(batch);
+            if (batches.size() == 1) {
+                firstBlocked.complete(null);
+                return CompletableFuture.runAsync(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    done.countDown();
+                });
+            }
+            done.countDown();
+            return CompletableFuture.completedFuture(null);
+        });
+        stage.offer(1);
+        firstBlocked.get(5, TimeUnit.SECONDS);
+        //offering doesnt wait on the (slow) handler
+        for (int i = 2; i <= 5; i++) {
+            stage.offer(i);
+        }
+        Assert.assertEquals(1, stage.getBacklog());
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals(5, (int) batches.get(1).get(0));
+    }
+
+    @Test
+    public void testBatchesRunOneAtATime() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger handled = new AtomicInteger();
+        Stage<Integer> stage = new Stage<>("test", executor, 1000, batch -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            handled.addAndGet(batch.size());
+            inFlight.decrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        });
+        for (int i = 0; i < 100; i++) {
+            stage.offer(i);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handled.get() < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(100, handled.get());
+        Assert.assertEquals(1, maxInFlight.get());
+    }
+
+    @Test
+    public void testFailingHandlerDoesntStallStage() throws Exception {
+        CountDownLatch handled = new CountDownLatch(2);
+        Stage<Integer> stage = new Stage<>("test", executor, 10, batch -> {
+            handled.countDown();
+            throw new IllegalStateException("boom");
+        });
+        stage.offer(1);
+        Thread.sleep(50);
+        stage.poke();
+        Assert.assertTrue(handled.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import net.radai.anthony.notifications.Notification;
+import net.radai.anthony.publicip.PublicIp;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+
+public class StateJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStateSurvivesRestart() throws Exception {
+        File file = new File(folder.getRoot(), "state");
+        PublicIp both = new PublicIp(
+                (Inet4Address) InetAddress.getByName("1.2.3.4"),
+                (Inet6Address) InetAddress.getByName("2001:db8::1"));
+        try (StateJournal journal = new StateJournal(file)) {
+            journal.domainUpdated("a.com", ip("5.6.7.8"), Instant.ofEpochMilli(1000));
+            journal.domainUpdated("a.com", both, Instant.ofEpochMilli(2000));
+            journal.queued(new Notification(Instant.ofEpochMilli(3000), "first"));
+            journal.queued(new Notification(Instant.ofEpochMilli(4000), "second"));
+            journal.queued(new Notification(Instant.ofEpochMilli(5000), "third"));
+            journal.dequeued(2);
+        }
+        try (StateJournal journal = new StateJournal(file)) {
+            Assert.assertEquals(both, journal.getLastIp("a.com"));
+            Assert.assertEquals(Instant.ofEpochMilli(2000), journal.getLastUpdate("a.com"));
+            Assert.assertNull(journal.getLastIp("b.com"));
+            List<Notification> pending = journal.getPending();
+            Assert.assertEquals(1, pending.size());
+            Assert.assertEquals("third", pending.get(0).getText());
+            Assert.assertEquals(Instant.ofEpochMilli(5000), pending.get(0).getTimestamp());
+        }
+    }
+
+    @Test
+    public void testWritesAreBatched() throws Exception {
+        File file = new File(folder.getRoot(), "state");
+        try (StateJournal journal = new StateJournal(file, 60000, 1000)) {
+            journal.domainUpdated("a.com", ip("1.2.3.4"), Instant.now());
+            journal.domainUpdated("b.com", ip("1.2.3.4"), Instant.now());
+            Assert.assertEquals(0, file.length());
+            journal.sync();
+            Assert.assertEquals(2, lines(file).size());
+        }
+    }
+
+    @Test
+    public void testPeriodicSync() throws Exception {
+        File file = new File(folder.getRoot(), "state");
+        try (StateJournal journal = new StateJournal(file, 20, 1000)) {
+            journal.domainUpdated("a.com", ip("1.2.3.4"), Instant.now());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (file.length() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, lines(file).size());
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        File file = new File(folder.getRoot(), "state");
+        try (StateJournal journal = new StateJournal(file, 60000, 10)) {
+            for (int i = 0; i < 20; i++) {
+                journal.domainUpdated("a.com", ip("10.0.0." + i), Instant.now());
+                journal.queued(new Notification(Instant.now(), "n" + i));
+                journal.dequeued(1);
+            }
+            journal.sync();
+            Assert.assertEquals(1, lines(file).size());
+            journal.queued(new Notification(Instant.now(), "last"));
+            journal.sync();
+            Assert.assertEquals(2, lines(file).size());
+        }
+        try (StateJournal journal = new StateJournal(file)) {
+            Assert.assertEquals(ip("10.0.0.19"), journal.getLastIp("a.com"));
+            Assert.assertEquals(1, journal.getPending().size());
+        }
+    }
+
+    @Test
+    public void testTornWriteIgnored() throws Exception {
+        File file = new File(folder.getRoot(), "state");
+        try (StateJournal journal = new StateJournal(file)) {
+            journal.domainUpdated("a.com", ip("1.2.3.4"), Instant.now());
+        }
+        Files.write(file.toPath(), "{\"op\":\"ip\",\"dom".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        try (StateJournal journal = new StateJournal(file)) {
+            Assert.assertEquals(ip("1.2.3.4"), journal.getLastIp("a.com"));
+        }
+    }
+    
+    @Test
+    public void testEntriesAfterTornWriteSurvive() throws Exception {
+        File file = new File(folder.getRoot(), "state");
+        try (StateJournal journal = new StateJournal(file)) {
+            journal.domainUpdated("a.com", ip("1.2.3.4"), Instant.now());
+        }
+        Files.write(file.toPath(), "{\"op\":\"ip\",\"dom".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        try (StateJournal journal = new StateJournal(file)) {
+            journal.domainUpdated("b.com", ip("5.6.7.8"), Instant.now());
+        }
+        Assert.assertEquals(2, lines(file).size());
+        try (StateJournal journal = new StateJournal(file)) {
+            Assert.assertEquals(ip("1.2.3.4"), journal.getLastIp("a.com"));
+            Assert.assertEquals(ip("5.6.7.8"), journal.getLastIp("b.com"));
+        }
+    }
+    
+    private static List<String> lines(File file) throws Exception {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    private static PublicIp ip(String v4) throws Exception {
+        return new PublicIp((Inet4Address) InetAddress.getByName(v4));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class VirtualThreadsTest {
+
+    @Test
+    public void testThreadPerTask() throws Exception {
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test-");
+        try {
+            //both tasks have to run at the same time to get past the latch
+            CountDownLatch latch = new CountDownLatch(2);
+            Future<String> first = executor.submit(() -> {
+                latch.countDown();
+                latch.await();
+                return Thread.currentThread().getName();
+            });
+            Future<String> second = executor.submit(() -> {
+                latch.countDown();
+                latch.await();
+                return Thread.currentThread().getName();
+            });
+            String firstName = first.get(5, TimeUnit.SECONDS);
+            String secondName = second.get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(firstName, firstName.startsWith("test-"));
+            Assert.assertTrue(secondName, secondName.startsWith("test-"));
+            Assert.assertNotEquals(firstName, secondName);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
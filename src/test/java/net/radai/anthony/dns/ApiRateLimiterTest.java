@@ -0,0 +1,87 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.dns;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ApiRateLimiterTest {
+
+    @Test
+    public void testBurstThenPaced() throws Exception {
+        //burst of 2, then 1 every 100 millis
+        ApiRateLimiter limiter = new ApiRateLimiter("test", 2, 1, 100);
+        long start = System.nanoTime();
+        List<CompletableFuture<Long>> calls = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            calls.add(limiter.submit(null, () -> CompletableFuture.completedFuture(System.nanoTime())));
+        }
+        Assert.assertEquals(4, limiter.getQueueDepth());
+        List<Long> elapsed = new ArrayList<>();
+        for (CompletableFuture<Long> call : calls) {
+            elapsed.add(TimeUnit.NANOSECONDS.toMillis(call.get(5, TimeUnit.SECONDS) - start));
+        }
+        Assert.assertTrue(elapsed.toString(), elapsed.get(1) < 50);
+        Assert.assertTrue(elapsed.toString(), elapsed.get(2) >= 90);
+        Assert.assertTrue(elapsed.toString(), elapsed.get(5) >= 390);
+        Assert.assertEquals(0, limiter.getQueueDepth());
+    }
+
+    @Test
+    public void testIdenticalQueuedCallsAreCoalesced() throws Exception {
+        ApiRateLimiter limiter = new ApiRateLimiter("test", 1, 1, 100);
+        AtomicInteger made = new AtomicInteger();
+        limiter.submit(null, () -> CompletableFuture.completedFuture(made.incrementAndGet())).get();
+        CompletableFuture<Integer> first = limiter.submit("GET x", () -> CompletableFuture.completedFuture(made.incrementAndGet()));
+        CompletableFuture<Integer> second = limiter.submit("GET x", () -> CompletableFuture.completedFuture(made.incrementAndGet()));
+        CompletableFuture<Integer> other = limiter.submit("GET y", () -> CompletableFuture.completedFuture(made.incrementAndGet()));
+        Assert.assertEquals(2, limiter.getQueueDepth());
+        Assert.assertEquals(2, (int) first.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, (int) second.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, (int) other.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, made.get());
+    }
+
+    @Test
+    public void testBackOff() throws Exception {
+        ApiRateLimiter limiter = new ApiRateLimiter("test", 10, 10, 100);
+        limiter.backOff(300);
+        long start = System.nanoTime();
+        long made = limiter.submit(null, () -> CompletableFuture.completedFuture(System.nanoTime())).get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(made - start) >= 250);
+    }
+
+    @Test
+    public void testFailedCallsPropagate() throws Exception {
+        ApiRateLimiter limiter = new ApiRateLimiter("test", 1, 1, 100);
+        CompletableFuture<Object> call = limiter.submit(null, () -> {
+            throw new IllegalStateException("boom");
+        });
+        try {
+            call.get(5, TimeUnit.SECONDS);
+            Assert.fail("expected to fail");
+        } catch (Exception e) {
+            Assert.assertEquals("boom", e.getCause().getMessage());
+        }
+    }
+}
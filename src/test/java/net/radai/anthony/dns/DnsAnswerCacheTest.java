@@ -0,0 +1,149 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.dns;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.net.InetAddress;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DnsAnswerCacheTest {
+    private final AtomicLong now = new AtomicLong(1000000);
+    private final Clock clock = new Clock() {
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(now.get());
+        }
+    };
+
+    @Test
+    public void testAnswersExpireWithTheirTtl() throws Exception {
+        DnsAnswerCache cache = new DnsAnswerCache(10, clock);
+        Name name = name("what.ever");
+        cache.put(name, Type.A, answer(name, 60, "1.2.3.4"));
+        Record[] cached = cache.get(name("WHAT.ever"), Type.A);
+        Assert.assertEquals(1, cached.length);
+        Assert.assertEquals("1.2.3.4", ((ARecord) cached[0]).getAddress().getHostAddress());
+        Assert.assertNull(cache.get(name, Type.AAAA));
+        now.addAndGet(59999);
+        Assert.assertNotNull(cache.get(name, Type.A));
+        now.addAndGet(1);
+        Assert.assertNull(cache.get(name, Type.A));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testShortestTtlWins() throws Exception {
+        DnsAnswerCache cache = new DnsAnswerCache(10, clock);
+        Name name = name("what.ever");
+        Message response = answer(name, 600, "1.2.3.4");
+        response.addRecord(new ARecord(name, DClass.IN, 30, InetAddress.getByName("5.6.7.8")), Section.ANSWER);
+        cache.put(name, Type.A, response);
+        now.addAndGet(30000);
+        Assert.assertNull(cache.get(name, Type.A));
+    }
+
+    @Test
+    public void testZeroTtlNotCached() throws Exception {
+        DnsAnswerCache cache = new DnsAnswerCache(10, clock);
+        Name name = name("what.ever");
+        cache.put(name, Type.A, answer(name, 0, "1.2.3.4"));
+        Assert.assertNull(cache.get(name, Type.A));
+    }
+
+    @Test
+    public void testNegativeCaching() throws Exception {
+        DnsAnswerCache cache = new DnsAnswerCache(10, clock);
+        Name name = name("who.ever");
+        Message nxdomain = answer(name, 0);
+        nxdomain.getHeader().setRcode(Rcode.NXDOMAIN);
+        //without an SOA there's no telling for how long
+        cache.put(name, Type.A, nxdomain);
+        Assert.assertNull(cache.get(name, Type.A));
+        //lower of the SOA's ttl and minimum
+        nxdomain.addRecord(new SOARecord(name("ever"), DClass.IN, 300, name("ns.ever"), name("admin.ever"),
+                1, 3600, 600, 86400, 120), Section.AUTHORITY);
+        cache.put(name, Type.A, nxdomain);
+        Record[] cached = cache.get(name, Type.A);
+        Assert.assertNotNull(cached);
+        Assert.assertEquals(0, cached.length);
+        now.addAndGet(120000);
+        Assert.assertNull(cache.get(name, Type.A));
+    }
+
+    @Test
+    public void testServerFailuresNotCached() throws Exception {
+        DnsAnswerCache cache = new DnsAnswerCache(10, clock);
+        Name name = name("what.ever");
+        Message failure = answer(name, 60, "1.2.3.4");
+        failure.getHeader().setRcode(Rcode.SERVFAIL);
+        cache.put(name, Type.A, failure);
+        Assert.assertNull(cache.get(name, Type.A));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        DnsAnswerCache cache = new DnsAnswerCache(2, clock);
+        Name a = name("a.ever");
+        Name b = name("b.ever");
+        Name c = name("c.ever");
+        cache.put(a, Type.A, answer(a, 60, "1.1.1.1"));
+        cache.put(b, Type.A, answer(b, 60, "2.2.2.2"));
+        Assert.assertNotNull(cache.get(a, Type.A)); //b is now the least recently used
+        cache.put(c, Type.A, answer(c, 60, "3.3.3.3"));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNotNull(cache.get(a, Type.A));
+        Assert.assertNull(cache.get(b, Type.A));
+        Assert.assertNotNull(cache.get(c, Type.A));
+    }
+    
+    private static Message answer(Name name, long ttl, String... addresses) throws Exception {
+        Message response = Message.newQuery(Record.newRecord(name, Type.A, DClass.IN));
+        for (String address : addresses) {
+            response.addRecord(new ARecord(name, DClass.IN, ttl, InetAddress.getByName(address)), Section.ANSWER);
+        }
+        return response;
+    }
+    
+    private static Name name(String name) throws Exception {
+        return Name.fromString(name, Name.root);
+    }
+}
@@ -16,17 +16,29 @@
 
 package net.radai.anthony.dns;
 
+import net.radai.anthony.LocalDnsServer;
 import net.radai.anthony.OnlineTest;
 import net.radai.anthony.publicip.PublicIp;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.net.InetAddress;
+import java.time.Clock;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
-public class DnsJavaResolverTest extends OnlineTest {
+public class DnsJavaResolverTest {
     
     @Test
     public void testResolveWellKnownDomain() throws Exception {
+        OnlineTest.skipIfNoInternet();
         DnsJavaResolver resolver = new DnsJavaResolver(Arrays.asList(
                 "209.244.0.3", "209.244.0.4", //level3
                 "8.8.8.8", "8.8.4.4"          //google
@@ -36,4 +48,160 @@ public class DnsJavaResolverTest extends OnlineTest {
         Assert.assertNotNull(ip.getV4());
         Assert.assertNotNull(ip.getV6());
     }
+
+    @Test
+    public void testResolveBothFamilies() throws Exception {
+        try (LocalDnsServer server = new LocalDnsServer()) {
+            server.serve("what.ever", 60, "1.2.3.4", "2001:db8::1");
+            DnsJavaResolver resolver = local(server);
+            PublicIp ip = resolver.resolve("what.ever");
+            Assert.assertEquals("1.2.3.4", ip.getV4().getHostAddress());
+            Assert.assertEquals(InetAddress.getByName("2001:db8::1"), ip.getV6());
+            Assert.assertEquals(2, server.getQueries().size());
+        }
+    }
+
+    @Test
+    public void testFamiliesQueriedConcurrently() throws Exception {
+        try (LocalDnsServer server = new LocalDnsServer()) {
+            server.serve("what.ever", 60, "1.2.3.4", "2001:db8::1");
+            server.setDelayMs(500);
+            DnsJavaResolver resolver = local(server);
+            long start = System.currentTimeMillis();
+            PublicIp ip = resolver.resolveAsync("what.ever").get(5, TimeUnit.SECONDS);
+            long took = System.currentTimeMillis() - start;
+            Assert.assertNotNull(ip.getV4());
+            Assert.assertNotNull(ip.getV6());
+            //one after the other would take 1000+
+            Assert.assertTrue("took " + took, took < 900);
+        }
+    }
+
+    @Test
+    public void testUnknownName() throws Exception {
+        try (LocalDnsServer server = new LocalDnsServer()) {
+            server.serve("what.ever", 60, "1.2.3.4");
+            DnsJavaResolver resolver = local(server);
+            Assert.assertNull(resolver.resolve("who.ever"));
+            PublicIp ip = resolver.resolve("what.ever");
+            Assert.assertNotNull(ip.getV4());
+            Assert.assertNull(ip.getV6());
+        }
+    }
+
+    @Test
+    public void testResolveAll() throws Exception {
+        try (LocalDnsServer server = new LocalDnsServer()) {
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                server.serve(i + ".what.ever", 60, "10.0.0." + i);
+                names.add(i + ".what.ever");
+            }
+            names.add("who.ever");
+            names.add("0.what.ever"); //dup
+            Map<String, PublicIp> results = local(server).resolveAll(names);
+            Assert.assertEquals(51, results.size());
+            Assert.assertEquals(new ArrayList<>(new LinkedHashSet<>(names)), new ArrayList<>(results.keySet()));
+            Assert.assertEquals("10.0.0.7", results.get("7.what.ever").getV4().getHostAddress());
+            Assert.assertTrue(results.containsKey("who.ever"));
+            Assert.assertNull(results.get("who.ever"));
+            Assert.assertEquals(102, server.getQueries().size());
+        }
+    }
+
+    @Test
+    public void testResolveAllBoundsQueriesInFlight() throws Exception {
+        try (LocalDnsServer server = new LocalDnsServer()) {
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                server.serve(i + ".what.ever", 60, "10.0.0." + i);
+                names.add(i + ".what.ever");
+            }
+            server.setDelayMs(200);
+            //2 names at a time means 4 rounds
+            DnsJavaResolver narrow = new DnsJavaResolver(Collections.singletonList(server.getHost()), server.getPort(), 4, 5000, 0);
+            long start = System.currentTimeMillis();
+            Assert.assertEquals(8, narrow.resolveAll(names).size());
+            long took = System.currentTimeMillis() - start;
+            Assert.assertTrue("took " + took, took >= 750);
+            //all at once
+            start = System.currentTimeMillis();
+            Assert.assertEquals(8, local(server).resolveAll(names).size());
+            took = System.currentTimeMillis() - start;
+            Assert.assertTrue("took " + took, took < 750);
+        }
+    }
+
+    @Test
+    public void testLostQueriesAreRetried() throws Exception {
+        try (LocalDnsServer server = new LocalDnsServer()) {
+            server.serve("what.ever", 60, "1.2.3.4");
+            server.drop(2);
+            DnsJavaResolver resolver = new DnsJavaResolver(Collections.singletonList(server.getHost()), server.getPort(), 4, 200, 1);
+            Assert.assertEquals("1.2.3.4", resolver.resolve("what.ever").getV4().getHostAddress());
+            Assert.assertEquals(4, server.getQueries().size());
+        }
+    }
+
+    @Test
+    public void testUnresolvedNamesLeftOut() throws Exception {
+        try (LocalDnsServer server = new LocalDnsServer()) {
+            server.serve("what.ever", 60, "1.2.3.4");
+            server.serve("who.ever", 60, "5.6.7.8");
+            DnsJavaResolver resolver = new DnsJavaResolver(Collections.singletonList(server.getHost()), server.getPort(), 2, 200, 0);
+            server.drop(1); //one of the 2 queries for the 1st name
+            Map<String, PublicIp> results = resolver.resolveAll(Arrays.asList("what.ever", "who.ever"));
+            Assert.assertEquals(Collections.singleton("who.ever"), results.keySet());
+        }
+    }
+
+    @Test
+    public void testBadNamesFailTheFuture() throws Exception {
+        try (LocalDnsServer server = new LocalDnsServer()) {
+            server.serve("what.ever", 60, "1.2.3.4");
+            DnsJavaResolver resolver = local(server);
+            CompletableFuture<PublicIp> future = resolver.resolveAsync("what..ever");
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                Assert.fail("should have failed");
+            } catch (ExecutionException expected) {
+                Assert.assertTrue(expected.getCause() instanceof IllegalArgumentException);
+            }
+            Map<String, PublicIp> results = resolver.resolveAll(Arrays.asList("what..ever", "what.ever"));
+            Assert.assertEquals(Collections.singleton("what.ever"), results.keySet());
+        }
+    }
+
+    @Test
+    public void testAnswersCached() throws Exception {
+        try (LocalDnsServer server = new LocalDnsServer()) {
+            server.serve("what.ever", 60, "1.2.3.4");
+            server.serve("now.ever", 0, "5.6.7.8");
+            DnsAnswerCache cache = new DnsAnswerCache(10, Clock.systemUTC());
+            DnsJavaResolver resolver = new DnsJavaResolver(Collections.singletonList(server.getHost()), server.getPort(),
+                    DnsJavaResolver.DEFAULT_MAX_IN_FLIGHT, DnsJavaResolver.DEFAULT_TIMEOUT_MS, 0, cache, false);
+            resolver.resolve("what.ever");
+            server.serve("what.ever", 60, "4.3.2.1");
+            Assert.assertEquals("1.2.3.4", resolver.resolve("what.ever").getV4().getHostAddress());
+            //the AAAA query came back empty, without an SOA to say for how long
+            Assert.assertEquals(Collections.singletonList("what.ever. AAAA"), after(server, 2));
+            //0 ttl is never cached
+            resolver.resolve("now.ever");
+            resolver.resolve("now.ever");
+            Assert.assertEquals(7, server.getQueries().size());
+            //bypass sees the change, and shares it with the cache
+            Assert.assertEquals("4.3.2.1", resolver.bypassingCache().resolve("what.ever").getV4().getHostAddress());
+            Assert.assertEquals("4.3.2.1", resolver.resolve("what.ever").getV4().getHostAddress());
+            Assert.assertEquals(Collections.singletonList("what.ever. AAAA"), after(server, 9));
+        }
+    }
+    
+    private static List<String> after(LocalDnsServer server, int skip) {
+        List<String> queries = server.getQueries();
+        return queries.subList(skip, queries.size());
+    }
+
+    private static DnsJavaResolver local(LocalDnsServer server) {
+        return new DnsJavaResolver(Collections.singletonList(server.getHost()), server.getPort());
+    }
 }
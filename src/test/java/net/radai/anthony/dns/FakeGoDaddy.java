@@ -0,0 +1,139 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.dns;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import net.radai.anthony.LocalHttpServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * an in-memory stand-in for (the parts of) the godaddy domains api we use
+ */
+public class FakeGoDaddy implements AutoCloseable {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<List<Map<String, Object>>> RECORDS = new TypeReference<List<Map<String, Object>>>() {};
+    
+    private final LocalHttpServer server;
+    private final List<Map<String, Object>> zone = new CopyOnWriteArrayList<>();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final AtomicInteger throttled = new AtomicInteger();
+    private volatile String retryAfter = null;
+
+    public FakeGoDaddy() throws IOException {
+        server = new LocalHttpServer();
+        server.handle("/v1/domains/", this::handle);
+    }
+
+    public String getApiUrl() {
+        return server.url("/v1/domains/");
+    }
+
+    public FakeGoDaddy addRecord(String type, String name, String data, long ttl) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("type", type);
+        record.put("name", name);
+        record.put("data", data);
+        record.put("ttl", ttl);
+        zone.add(record);
+        return this;
+    }
+
+    public List<Map<String, Object>> getZone() {
+        return new ArrayList<>(zone);
+    }
+
+    /**
+     * @return "METHOD path" of every request received so far
+     */
+    public List<String> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    public void clearRequests() {
+        requests.clear();
+    }
+
+    /**
+     * respond to the next few requests with a 429
+     */
+    public void throttle(int requests, String retryAfter) {
+        this.retryAfter = retryAfter;
+        throttled.set(requests);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        requests.add(method + " " + path);
+        //the jdk server and a pooled client occasionally disagree about whether a connection is still alive
+        exchange.getResponseHeaders().add("Connection", "close");
+        if (throttled.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+            if (retryAfter != null) {
+                exchange.getResponseHeaders().add("Retry-After", retryAfter);
+            }
+            LocalHttpServer.send(exchange, 429, "{\"code\":\"TOO_MANY_REQUESTS\"}");
+            return;
+        }
+        //path is /v1/domains/{domain}/records[/{type}/{name}]
+        String[] parts = path.split("/");
+        if (parts.length < 5 || !"records".equals(parts[4])) {
+            LocalHttpServer.send(exchange, 404, "");
+            return;
+        }
+        if ("GET".equals(method) && parts.length == 5) {
+            LocalHttpServer.send(exchange, 200, MAPPER.writeValueAsString(zone));
+            return;
+        }
+        if ("PUT".equals(method)) {
+            List<Map<String, Object>> body = MAPPER.readValue(exchange.getRequestBody(), RECORDS);
+            if (parts.length == 5) {
+                zone.clear();
+                zone.addAll(body);
+            } else if (parts.length == 7) {
+                String type = parts[5];
+                String name = parts[6];
+                zone.removeIf(record -> type.equals(record.get("type")) && name.equals(record.get("name")));
+                for (Map<String, Object> record : body) {
+                    if (record.containsKey("type") || record.containsKey("name")) {
+                        LocalHttpServer.send(exchange, 422, "");
+                        return;
+                    }
+                    record.put("type", type);
+                    record.put("name", name);
+                    zone.add(record);
+                }
+            }
+            LocalHttpServer.send(exchange, 200, "");
+            return;
+        }
+        LocalHttpServer.send(exchange, 405, "");
+    }
+
+    @Override
+    public void close() {
+        server.close();
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.dns;
+
+import net.radai.anthony.publicip.PublicIp;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClientConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class GoDaddyDnsUpdaterTest {
+    private FakeGoDaddy godaddy;
+    private AsyncHttpClient client;
+    private GoDaddyDnsUpdater updater;
+    private final AtomicLong now = new AtomicLong(System.currentTimeMillis());
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        godaddy = new FakeGoDaddy();
+        client = new DefaultAsyncHttpClient(new DefaultAsyncHttpClientConfig.Builder().build());
+        updater = new GoDaddyDnsUpdater(client, godaddy.getApiUrl(), "key", "secret");
+        godaddy.addRecord("A", "@", "1.2.3.4", 3600)
+                .addRecord("A", "*", "1.2.3.4", 3600)
+                .addRecord("CNAME", "www", "@", 3600)
+                .addRecord("TXT", "@", "whatever", 600);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        client.close();
+        godaddy.close();
+    }
+
+    @Test
+    public void testNoWritesWhenUpToDate() throws Exception {
+        Assert.assertFalse(updater.update("what.ever", v4("1.2.3.4"), true));
+        Assert.assertEquals(Collections.singletonList("GET /v1/domains/what.ever/records"), godaddy.getRequests());
+    }
+
+    @Test
+    public void testOnlyChangedRecordsAreWritten() throws Exception {
+        Assert.assertTrue(updater.update("what.ever", v4("5.6.7.8"), false));
+        Assert.assertEquals(Arrays.asList(
+                "GET /v1/domains/what.ever/records",
+                "PUT /v1/domains/what.ever/records/A/@"
+        ), godaddy.getRequests());
+        Assert.assertEquals("5.6.7.8", find("A", "@").get("data"));
+        Assert.assertEquals("1.2.3.4", find("A", "*").get("data"));
+        Assert.assertEquals(4, godaddy.getZone().size());
+    }
+
+    @Test
+    public void testNewRecordsAreAdded() throws Exception {
+        Inet6Address v6 = (Inet6Address) InetAddress.getByName("2001:db8::1");
+        Assert.assertTrue(updater.update("what.ever", new PublicIp(v4("1.2.3.4").getV4(), v6), true));
+        List<String> requests = godaddy.getRequests();
+        Assert.assertEquals(3, requests.size());
+        Assert.assertEquals("GET /v1/domains/what.ever/records", requests.get(0));
+        //the two writes go out concurrently, in no particular order
+        Assert.assertEquals(new HashSet<>(Arrays.asList(
+                "PUT /v1/domains/what.ever/records/AAAA/@",
+                "PUT /v1/domains/what.ever/records/AAAA/*"
+        )), new HashSet<>(requests.subList(1, 3)));
+        Assert.assertEquals(6, godaddy.getZone().size());
+        godaddy.clearRequests();
+        //godaddy spelling the address differently shouldnt matter
+        find("AAAA", "@").put("data", "2001:db8::1");
+        Assert.assertFalse(updater.update("what.ever", new PublicIp(v4("1.2.3.4").getV4(), v6), true));
+        Assert.assertEquals(1, godaddy.getRequests().size());
+    }
+
+    @Test
+    public void testStaleRecordsRemovedByRewritingZone() throws Exception {
+        godaddy.addRecord("AAAA", "@", "2001:db8::1", 3600);
+        Assert.assertTrue(updater.update("what.ever", v4("1.2.3.4"), true));
+        Assert.assertEquals(Arrays.asList(
+                "GET /v1/domains/what.ever/records",
+                "PUT /v1/domains/what.ever/records"
+        ), godaddy.getRequests());
+        Assert.assertNull(find("AAAA", "@"));
+        Assert.assertEquals(4, godaddy.getZone().size());
+    }
+
+    @Test
+    public void testSnapshotSavesFetching() throws Exception {
+        GoDaddyDnsUpdater cachingUpdater = cachingUpdater(60000, null, null);
+        Assert.assertTrue(cachingUpdater.update("what.ever", v4("5.6.7.8"), false));
+        godaddy.clearRequests();
+        Assert.assertTrue(cachingUpdater.update("what.ever", v4("9.9.9.9"), false));
+        Assert.assertEquals(Collections.singletonList("PUT /v1/domains/what.ever/records/A/@"), godaddy.getRequests());
+        godaddy.clearRequests();
+        Assert.assertFalse(cachingUpdater.update("what.ever", v4("9.9.9.9"), false));
+        Assert.assertTrue(godaddy.getRequests().isEmpty());
+    }
+
+    @Test
+    public void testExpiredSnapshotIsRefetched() throws Exception {
+        GoDaddyDnsUpdater cachingUpdater = cachingUpdater(60000, null, null);
+        Assert.assertTrue(cachingUpdater.update("what.ever", v4("5.6.7.8"), false));
+        now.addAndGet(60000);
+        godaddy.clearRequests();
+        Assert.assertTrue(cachingUpdater.update("what.ever", v4("9.9.9.9"), false));
+        Assert.assertEquals(Arrays.asList(
+                "GET /v1/domains/what.ever/records",
+                "PUT /v1/domains/what.ever/records/A/@"
+        ), godaddy.getRequests());
+    }
+
+    @Test
+    public void testSnapshotIsVerified() throws Exception {
+        AtomicReference<String> published = new AtomicReference<>("5.6.7.8");
+        GoDaddyDnsUpdater cachingUpdater = cachingUpdater(60000, null, hostname -> v4(published.get()));
+        Assert.assertTrue(cachingUpdater.update("what.ever", v4("5.6.7.8"), false));
+        //name servers agree with what we wrote
+        godaddy.clearRequests();
+        Assert.assertTrue(cachingUpdater.update("what.ever", v4("9.9.9.9"), false));
+        Assert.assertEquals(Collections.singletonList("PUT /v1/domains/what.ever/records/A/@"), godaddy.getRequests());
+        //someone else changed the zone
+        find("A", "@").put("data", "7.7.7.7");
+        published.set("7.7.7.7");
+        godaddy.clearRequests();
+        Assert.assertTrue(cachingUpdater.update("what.ever", v4("9.9.9.9"), false));
+        Assert.assertEquals(Arrays.asList(
+                "GET /v1/domains/what.ever/records",
+                "PUT /v1/domains/what.ever/records/A/@"
+        ), godaddy.getRequests());
+    }
+
+    @Test
+    public void testZoneIsRefetchedBeforeBeingRewritten() throws Exception {
+        GoDaddyDnsUpdater cachingUpdater = cachingUpdater(60000, null, null);
+        Inet6Address v6 = (Inet6Address) InetAddress.getByName("2001:db8::1");
+        Assert.assertTrue(cachingUpdater.update("what.ever", new PublicIp(v4("1.2.3.4").getV4(), v6), false));
+        godaddy.addRecord("MX", "@", "mail.what.ever", 3600);
+        godaddy.clearRequests();
+        Assert.assertTrue(cachingUpdater.update("what.ever", v4("1.2.3.4"), false));
+        Assert.assertEquals(Arrays.asList(
+                "GET /v1/domains/what.ever/records",
+                "PUT /v1/domains/what.ever/records"
+        ), godaddy.getRequests());
+        Assert.assertNotNull(find("MX", "@"));
+        Assert.assertNull(find("AAAA", "@"));
+    }
+
+    @Test
+    public void testSnapshotsSurviveRestarts() throws Exception {
+        File dir = folder.newFolder();
+        Assert.assertTrue(cachingUpdater(60000, dir, null).update("what.ever", v4("5.6.7.8"), false));
+        godaddy.clearRequests();
+        Assert.assertTrue(cachingUpdater(60000, dir, null).update("what.ever", v4("9.9.9.9"), false));
+        Assert.assertEquals(Collections.singletonList("PUT /v1/domains/what.ever/records/A/@"), godaddy.getRequests());
+    }
+
+    @Test
+    public void testRateLimitedCallsAreRetried() throws Exception {
+        godaddy.throttle(2, "1");
+        long start = System.currentTimeMillis();
+        Assert.assertTrue(updater.update("what.ever", v4("5.6.7.8"), false));
+        long took = System.currentTimeMillis() - start;
+        Assert.assertTrue("took " + took, took >= 1900);
+        Assert.assertEquals(Arrays.asList(
+                "GET /v1/domains/what.ever/records",
+                "GET /v1/domains/what.ever/records",
+                "GET /v1/domains/what.ever/records",
+                "PUT /v1/domains/what.ever/records/A/@"
+        ), godaddy.getRequests());
+    }
+
+    @Test
+    public void testGivesUpWhenRateLimitedForTooLong() throws Exception {
+        godaddy.throttle(100, "0");
+        try {
+            updater.update("what.ever", v4("5.6.7.8"), false);
+            Assert.fail("expected to fail");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("429"));
+        }
+        Assert.assertEquals(4, godaddy.getRequests().size());
+    }
+
+    @Test
+    public void testConcurrentAsyncUpdates() throws Exception {
+        List<CompletableFuture<Boolean>> updates = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            updates.add(updater.updateAsync("domain" + i + ".com", v4("5.6.7.8"), true));
+        }
+        for (CompletableFuture<Boolean> update : updates) {
+            update.get(10, TimeUnit.SECONDS);
+        }
+        //the fake has a single zone, so only the 1st few updates actually change anything
+        long fetches = godaddy.getRequests().stream().filter(request -> request.startsWith("GET")).count();
+        Assert.assertEquals(5, fetches);
+        Assert.assertEquals("5.6.7.8", find("A", "@").get("data"));
+        Assert.assertEquals("5.6.7.8", find("A", "*").get("data"));
+    }
+
+    @Test
+    public void testAsyncFailures() throws Exception {
+        godaddy.throttle(100, "0");
+        try {
+            updater.updateAsync("what.ever", v4("5.6.7.8"), false).get(10, TimeUnit.SECONDS);
+            Assert.fail("expected to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testRetryAfter() throws Exception {
+        long now = Instant.parse("2015-10-21T07:28:00Z").toEpochMilli();
+        Assert.assertEquals(120000, GoDaddyDnsUpdater.retryAfterMs("120", now));
+        Assert.assertEquals(60000, GoDaddyDnsUpdater.retryAfterMs(null, now));
+        Assert.assertEquals(60000, GoDaddyDnsUpdater.retryAfterMs("soon", now));
+        Assert.assertEquals(90000, GoDaddyDnsUpdater.retryAfterMs("Wed, 21 Oct 2015 07:29:30 GMT", now));
+        Assert.assertEquals(0, GoDaddyDnsUpdater.retryAfterMs("Wed, 21 Oct 2015 07:28:00 GMT", now));
+        Assert.assertEquals(0, GoDaddyDnsUpdater.retryAfterMs("Tue, 20 Oct 2015 07:28:00 GMT", now));
+    }
+
+    @Test
+    public void testRecordsRoundTrip() throws Exception {
+        List<GoDaddyDnsUpdater.Record> records = new ArrayList<>();
+        records.add(GoDaddyDnsUpdater.Record.A("@", "1.2.3.4", 3600));
+        records.add(GoDaddyDnsUpdater.Record.AAAA("*", "2001:db8::1", 600));
+        GoDaddyDnsUpdater.Record srv = new GoDaddyDnsUpdater.Record();
+        srv.type = "SRV";
+        srv.name = "_sip._tcp";
+        srv.data = "sip.what.ever";
+        srv.service = "_sip";
+        srv.protocol = "_tcp";
+        srv.port = 5060;
+        srv.weight = 10;
+        srv.priority = 20;
+        records.add(srv);
+        byte[] json = GoDaddyDnsUpdater.writeRecords(records);
+        Assert.assertEquals(records, GoDaddyDnsUpdater.parseRecords(new ByteArrayInputStream(json)));
+        Assert.assertEquals(Collections.emptyList(), GoDaddyDnsUpdater.parseRecords(stream("[]")));
+        Assert.assertEquals(Collections.emptyList(), GoDaddyDnsUpdater.parseRecords(stream("null")));
+    }
+
+    @Test
+    public void testMalformedRecordsRejected() throws Exception {
+        String[] bodies = {"{}", "[{\"type\": \"A\"}", "[{\"type\": \"A\"}, 3]", "[{\"type\": \"A\", \"huh\": 1}]"};
+        for (String body : bodies) {
+            try {
+                GoDaddyDnsUpdater.parseRecords(stream(body));
+                Assert.fail("should have rejected " + body);
+            } catch (IOException expected) {
+                //expected
+            }
+        }
+    }
+
+    private GoDaddyDnsUpdater cachingUpdater(long ttlMs, File dir, DnsResolver verifier) {
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Instant instant() {
+                return Instant.ofEpochMilli(now.get());
+            }
+        };
+        return new GoDaddyDnsUpdater(client, godaddy.getApiUrl(), "key", "secret", ApiRateLimiter.godaddy("test"), clock, ttlMs, dir,
+                verifier != null ? domain -> verifier : null, ForkJoinPool.commonPool());
+    }
+
+    private Map<String, Object> find(String type, String name) {
+        List<Map<String, Object>> zone = godaddy.getZone();
+        for (Map<String, Object> record : zone) {
+            if (type.equals(record.get("type")) && name.equals(record.get("name"))) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static PublicIp v4(String literal) throws UnknownHostException {
+        return new PublicIp((Inet4Address) InetAddress.getByName(literal));
+    }
+}
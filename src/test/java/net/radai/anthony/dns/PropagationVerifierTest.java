@@ -0,0 +1,146 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.dns;
+
+import net.radai.anthony.LocalDnsServer;
+import net.radai.anthony.publicip.PublicIp;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+public class PropagationVerifierTest {
+    private LocalDnsServer ns1;
+    private LocalDnsServer ns2;
+    
+    @Before
+    public void setup() throws Exception {
+        ns1 = new LocalDnsServer();
+        ns2 = new LocalDnsServer();
+    }
+    
+    @After
+    public void teardown() {
+        ns1.close();
+        ns2.close();
+    }
+
+    @Test
+    public void testIsServed() throws Exception {
+        for (LocalDnsServer server : new LocalDnsServer[] {ns1, ns2}) {
+            server.serve("what.ever", 600, "1.2.3.4");
+            server.serve("*.what.ever", 600, "1.2.3.4");
+        }
+        try (PropagationVerifier verifier = verifier(2000)) {
+            Assert.assertTrue(verifier.isServed("what.ever", ip("1.2.3.4"), true).get(5, TimeUnit.SECONDS));
+            Assert.assertFalse(verifier.isServed("what.ever", ip("5.6.7.8"), true).get(5, TimeUnit.SECONDS));
+            ns2.serve("*.what.ever", 600, "5.6.7.8");
+            Assert.assertFalse(verifier.isServed("what.ever", ip("1.2.3.4"), true).get(5, TimeUnit.SECONDS));
+            Assert.assertTrue(verifier.isServed("what.ever", ip("1.2.3.4"), false).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testAlreadyPropagated() throws Exception {
+        ns1.serve("what.ever", 600, "5.6.7.8");
+        ns2.serve("what.ever", 600, "5.6.7.8");
+        try (PropagationVerifier verifier = verifier(5000)) {
+            PropagationVerifier.Propagation propagation = verifier.awaitPropagation("what.ever", ip("5.6.7.8"))
+                    .get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(propagation.isComplete());
+            Assert.assertEquals(2, propagation.getLatenciesMs().size());
+            Assert.assertEquals(2, ns1.getQueries().size()); //A + AAAA, no polling
+        }
+    }
+
+    @Test
+    public void testPerServerLatency() throws Exception {
+        ns1.serve("what.ever", 600, "5.6.7.8");
+        ns2.serve("what.ever", 600, "1.2.3.4");
+        try (PropagationVerifier verifier = verifier(5000)) {
+            new Thread(() -> {
+                try {
+                    Thread.sleep(300);
+                    ns2.serve("what.ever", 600, "5.6.7.8");
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }).start();
+            PropagationVerifier.Propagation propagation = verifier.awaitPropagation("what.ever", ip("5.6.7.8"))
+                    .get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(propagation.isComplete());
+            long first = propagation.getLatenciesMs().get("ns1");
+            long second = propagation.getLatenciesMs().get("ns2");
+            Assert.assertTrue(first < 300);
+            Assert.assertTrue(second >= 250);
+            Assert.assertEquals(second, propagation.getTimeToConsistentMs());
+        }
+    }
+
+    @Test
+    public void testGivesUpEventually() throws Exception {
+        ns1.serve("what.ever", 600, "5.6.7.8");
+        ns2.serve("what.ever", 600, "1.2.3.4");
+        try (PropagationVerifier verifier = verifier(300)) {
+            PropagationVerifier.Propagation propagation = verifier.awaitPropagation("what.ever", ip("5.6.7.8"))
+                    .get(5, TimeUnit.SECONDS);
+            Assert.assertFalse(propagation.isComplete());
+            Assert.assertNotNull(propagation.getLatenciesMs().get("ns1"));
+            Assert.assertNull(propagation.getLatenciesMs().get("ns2"));
+            Assert.assertEquals(-1, propagation.getTimeToConsistentMs());
+            Assert.assertTrue(ns2.getQueries().size() > 2); //kept polling
+        }
+    }
+
+    @Test
+    public void testUnknownNameServers() throws Exception {
+        try (PropagationVerifier verifier = new PropagationVerifier(domain -> null, ForkJoinPool.commonPool(), 1000, 50)) {
+            Assert.assertFalse(verifier.isServed("what.ever", ip("1.2.3.4"), true).get(5, TimeUnit.SECONDS));
+            try {
+                verifier.awaitPropagation("what.ever", ip("1.2.3.4")).get(5, TimeUnit.SECONDS);
+                Assert.fail("expected to fail");
+            } catch (ExecutionException expected) {
+                Assert.assertTrue(expected.getCause() instanceof UnknownHostException);
+            }
+        }
+    }
+    
+    private PropagationVerifier verifier(long timeoutMs) {
+        Map<String, DnsResolver> servers = new LinkedHashMap<>();
+        servers.put("ns1", local(ns1));
+        servers.put("ns2", local(ns2));
+        return new PropagationVerifier(domain -> servers, ForkJoinPool.commonPool(), timeoutMs, 50);
+    }
+
+    private static DnsJavaResolver local(LocalDnsServer server) {
+        return new DnsJavaResolver(Collections.singletonList(server.getHost()), server.getPort());
+    }
+    
+    private static PublicIp ip(String v4) throws Exception {
+        return new PublicIp((Inet4Address) InetAddress.getByName(v4));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class HistogramTest {
+
+    @Test
+    public void testBucketBoundsAreInclusive() throws Exception {
+        Histogram histogram = new Histogram(0.001, 0.01);
+        histogram.observe(1_000_000); //exactly 1ms
+        histogram.observe(1_000_001);
+        histogram.observe(-5); //clock weirdness counts as 0
+        StringBuilder out = new StringBuilder();
+        histogram.writeTo(out, "h", "");
+        Assert.assertEquals(
+                "h_bucket{le=\"0.001\"} 2\n" +
+                "h_bucket{le=\"0.01\"} 3\n" +
+                "h_bucket{le=\"+Inf\"} 3\n" +
+                "h_sum 0.002000001\n" +
+                "h_count 3\n",
+                out.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBoundsMustIncrease() throws Exception {
+        new Histogram(0.1, 0.1);
+    }
+
+    @Test
+    public void testConcurrentObservations() throws Exception {
+        Histogram histogram = new Histogram();
+        int threads = 4;
+        int perThread = 100000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < perThread; j++) {
+                    histogram.observe(j % 1000 * 1_000_000L);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Assert.assertEquals(threads * perThread, histogram.getCount());
+        StringBuilder out = new StringBuilder();
+        histogram.writeTo(out, "h", "");
+        Assert.assertTrue(out.toString(), out.toString().contains("h_bucket{le=\"+Inf\"} " + threads * perThread + "\n"));
+        //0-999ms, evenly spread
+        Assert.assertTrue(out.toString(), out.toString().contains("h_bucket{le=\"0.5\"} " + threads * perThread / 1000 * 501 + "\n"));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void testCountersAndGauges() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter ok = registry.counter("requests_total", "requests made", "provider", "a", "result", "ok");
+        Counter failed = registry.counter("requests_total", "requests made", "provider", "a", "result", "error");
+        ok.inc();
+        ok.inc(2);
+        AtomicInteger queued = new AtomicInteger(5);
+        registry.gauge("queued", "things queued", queued::get);
+        Assert.assertSame(ok, registry.counter("requests_total", "requests made", "provider", "a", "result", "ok"));
+        Assert.assertEquals(3, ok.get());
+        Assert.assertEquals(0, failed.get());
+        Assert.assertEquals(
+                "# HELP queued things queued\n" +
+                "# TYPE queued gauge\n" +
+                "queued 5\n" +
+                "# HELP requests_total requests made\n" +
+                "# TYPE requests_total counter\n" +
+                "requests_total{provider=\"a\",result=\"error\"} 0\n" +
+                "requests_total{provider=\"a\",result=\"ok\"} 3\n",
+                registry.scrape());
+        queued.set(7);
+        Assert.assertTrue(registry.scrape().contains("queued 7\n"));
+        //re-registering a gauge replaces it
+        registry.gauge("queued", "things queued", () -> 0.5);
+        Assert.assertTrue(registry.scrape().contains("queued 0.5\n"));
+    }
+
+    @Test
+    public void testHistogramFormat() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        Histogram histogram = registry.histogram("latency_seconds", "how long", "domain", "what.ever");
+        histogram.observe(3_000_000); //3ms
+        histogram.observe(2_000_000_000L); //2s
+        histogram.observe(120_000_000_000L); //2 minutes
+        String scrape = registry.scrape();
+        Assert.assertTrue(scrape, scrape.startsWith("# HELP latency_seconds how long\n# TYPE latency_seconds histogram\n"));
+        Assert.assertTrue(scrape, scrape.contains("latency_seconds_bucket{domain=\"what.ever\",le=\"0.001\"} 0\n"));
+        Assert.assertTrue(scrape, scrape.contains("latency_seconds_bucket{domain=\"what.ever\",le=\"0.005\"} 1\n"));
+        Assert.assertTrue(scrape, scrape.contains("latency_seconds_bucket{domain=\"what.ever\",le=\"1.0\"} 1\n"));
+        Assert.assertTrue(scrape, scrape.contains("latency_seconds_bucket{domain=\"what.ever\",le=\"2.5\"} 2\n"));
+        Assert.assertTrue(scrape, scrape.contains("latency_seconds_bucket{domain=\"what.ever\",le=\"60.0\"} 2\n"));
+        Assert.assertTrue(scrape, scrape.contains("latency_seconds_bucket{domain=\"what.ever\",le=\"+Inf\"} 3\n"));
+        Assert.assertTrue(scrape, scrape.contains("latency_seconds_sum{domain=\"what.ever\"} 122.003\n"));
+        Assert.assertTrue(scrape, scrape.contains("latency_seconds_count{domain=\"what.ever\"} 3\n"));
+    }
+
+    @Test
+    public void testLabelValuesEscaped() throws Exception {
+        Assert.assertEquals("", MetricsRegistry.formatLabels());
+        Assert.assertEquals("{a=\"x\\\"y\\\\z\\nw\"}", MetricsRegistry.formatLabels("a", "x\"y\\z\nw"));
+    }
+
+    @Test
+    public void testInvalidRegistrations() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("things", "help");
+        expectRejected(() -> registry.histogram("things", "help"));
+        expectRejected(() -> registry.counter("bad-name", "help"));
+        expectRejected(() -> registry.counter("things", "help", "label"));
+        expectRejected(() -> registry.counter("things", "help", "__reserved", "x"));
+        expectRejected(() -> registry.counter("things", "help").inc(-1));
+    }
+
+    private static void expectRejected(Runnable registration) {
+        try {
+            registration.run();
+            Assert.fail("should have been rejected");
+        } catch (IllegalArgumentException expected) {
+            //expected
+        }
+    }
+}
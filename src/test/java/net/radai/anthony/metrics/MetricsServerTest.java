@@ -0,0 +1,46 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.metrics;
+
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClientConfig;
+import org.asynchttpclient.Response;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+public class MetricsServerTest {
+
+    @Test
+    public void testScrape() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("scraped_total", "things").inc(42);
+        try (MetricsServer server = new MetricsServer(registry, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+             AsyncHttpClient client = new DefaultAsyncHttpClient(new DefaultAsyncHttpClientConfig.Builder().build())) {
+            String url = "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort();
+            Response response = client.prepareGet(url + "/metrics").execute().get();
+            Assert.assertEquals(200, response.getStatusCode());
+            Assert.assertTrue(response.getContentType(), response.getContentType().startsWith("text/plain; version=0.0.4"));
+            Assert.assertTrue(response.getResponseBody(), response.getResponseBody().contains("scraped_total 42\n"));
+            Assert.assertEquals(405, client.preparePost(url + "/metrics").execute().get().getStatusCode());
+            Assert.assertEquals(404, client.prepareGet(url + "/elsewhere").execute().get().getStatusCode());
+        }
+    }
+}
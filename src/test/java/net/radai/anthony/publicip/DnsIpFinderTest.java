@@ -0,0 +1,31 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.publicip;
+
+import net.radai.anthony.OnlineTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DnsIpFinderTest extends OnlineTest {
+
+    @Test
+    public void testOpenDns() throws Exception {
+        PublicIp ip = DnsIpFinder.openDns().get();
+        Assert.assertNotNull(ip);
+        Assert.assertNotNull(ip.getV4());
+    }
+}
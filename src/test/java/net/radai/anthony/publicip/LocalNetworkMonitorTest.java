@@ -0,0 +1,74 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.publicip;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class LocalNetworkMonitorTest {
+
+    @Test
+    public void testFingerprint() throws Exception {
+        Assert.assertNotNull(LocalNetworkMonitor.fingerprint());
+    }
+    
+    @Test
+    public void testRouteCountersIgnored() throws Exception {
+        int[] columns = {0, 1, 2, 7};
+        List<String> before = Arrays.asList(
+                "Iface\tDestination\tGateway \tFlags\tRefCnt\tUse\tMetric\tMask\t\tMTU\tWindow\tIRTT",
+                "eth0\t00000000\t0101A8C0\t0003\t0\t0\t100\t00000000\t0\t0\t0",
+                "eth0\t0001A8C0\t00000000\t0001\t0\t0\t100\t00FFFFFF\t0\t0\t0");
+        List<String> busier = Arrays.asList(
+                before.get(0),
+                "eth0\t00000000\t0101A8C0\t0003\t2\t1234\t100\t00000000\t0\t0\t0",
+                "eth0\t0001A8C0\t00000000\t0001\t1\t56\t100\t00FFFFFF\t0\t0\t0");
+        List<String> newGateway = Arrays.asList(
+                before.get(0),
+                "eth0\t00000000\t0201A8C0\t0003\t0\t0\t100\t00000000\t0\t0\t0",
+                before.get(2));
+        Assert.assertEquals(LocalNetworkMonitor.routes(before, columns), LocalNetworkMonitor.routes(busier, columns));
+        Assert.assertNotEquals(LocalNetworkMonitor.routes(before, columns), LocalNetworkMonitor.routes(newGateway, columns));
+    }
+    
+    @Test
+    public void testDetectsChange() throws Exception {
+        AtomicReference<String> state = new AtomicReference<>("a");
+        try (LocalNetworkMonitor monitor = new LocalNetworkMonitor(10, state::get)) {
+            Assert.assertFalse(monitor.awaitChange(100));
+            state.set("b");
+            long start = System.currentTimeMillis();
+            Assert.assertTrue(monitor.awaitChange(10000));
+            Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+            //already consumed
+            Assert.assertFalse(monitor.awaitChange(100));
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        AtomicReference<String> state = new AtomicReference<>("a");
+        try (LocalNetworkMonitor monitor = new LocalNetworkMonitor(0, state::get)) {
+            state.set("b");
+            Assert.assertFalse(monitor.awaitChange(100));
+        }
+    }
+}
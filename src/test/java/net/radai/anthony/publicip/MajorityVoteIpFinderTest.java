@@ -0,0 +1,199 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.publicip;
+
+import net.radai.anthony.LocalHttpServer;
+import net.radai.anthony.publicip.provider.PublicIpServiceProvider;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClientConfig;
+import org.asynchttpclient.Request;
+import org.asynchttpclient.RequestBuilder;
+import org.asynchttpclient.Response;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MajorityVoteIpFinderTest {
+    private LocalHttpServer server;
+    private AsyncHttpClient client;
+
+    @Before
+    public void setup() throws Exception {
+        server = new LocalHttpServer();
+        client = new DefaultAsyncHttpClient(new DefaultAsyncHttpClientConfig.Builder().build());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+        if (server != null) {
+            server.close();
+            server = null;
+        }
+    }
+
+    @Test
+    public void testQuorumDoesNotWaitForStragglers() throws Exception {
+        server.respond("/fast1", 200, "1.2.3.4");
+        server.respond("/fast2", 200, "1.2.3.4");
+        server.respondSlowly("/slow", 30000, "1.2.3.4");
+        MajorityVoteIpFinder finder = new MajorityVoteIpFinder(client, 2,
+                provider("/fast1"), provider("/slow"), provider("/fast2"));
+        long start = System.currentTimeMillis();
+        PublicIp ip = finder.get();
+        long took = System.currentTimeMillis() - start;
+        Assert.assertEquals(new PublicIp(v4("1.2.3.4")), ip);
+        Assert.assertTrue("took " + took, took < 10000);
+    }
+
+    @Test
+    public void testFallsBackToMajorityWithoutQuorum() throws Exception {
+        server.respond("/a", 200, "1.2.3.4");
+        server.respond("/b", 200, "1.2.3.4");
+        server.respond("/c", 200, "5.6.7.8");
+        server.respond("/broken", 500, "");
+        MajorityVoteIpFinder finder = new MajorityVoteIpFinder(client, 4,
+                provider("/a"), provider("/b"), provider("/c"), provider("/broken"));
+        Assert.assertEquals(new PublicIp(v4("1.2.3.4")), finder.get());
+    }
+
+    @Test
+    public void testAllProvidersFailing() throws Exception {
+        server.respond("/broken", 500, "");
+        MajorityVoteIpFinder finder = new MajorityVoteIpFinder(client, 1, provider("/broken"), provider("/broken"));
+        Assert.assertNull(finder.get());
+    }
+
+    @Test
+    public void testSlowProviderIsHedged() throws Exception {
+        server.respond("/a", 200, "1.2.3.4");
+        server.respondSlowly("/slow", 30000, "1.2.3.4");
+        server.respond("/spare", 200, "1.2.3.4");
+        MajorityVoteIpFinder finder = new MajorityVoteIpFinder(client, 2, 2, 20000, Arrays.asList(
+                provider("/a", 2000), provider("/slow", 2000), provider("/spare", 2000)));
+        long start = System.currentTimeMillis();
+        PublicIp ip = finder.get();
+        long took = System.currentTimeMillis() - start;
+        Assert.assertEquals(new PublicIp(v4("1.2.3.4")), ip);
+        //hedge kicks in at half the timeout when there's no latency history
+        Assert.assertTrue("took " + took, took < 2000);
+    }
+
+    @Test
+    public void testFailedProviderIsReplacedBySpare() throws Exception {
+        server.respond("/a", 200, "1.2.3.4");
+        server.respond("/broken", 500, "");
+        server.respond("/spare", 200, "1.2.3.4");
+        MajorityVoteIpFinder finder = new MajorityVoteIpFinder(client, 2, 2, 20000, Arrays.asList(
+                provider("/a"), provider("/broken"), provider("/spare")));
+        Assert.assertEquals(new PublicIp(v4("1.2.3.4")), finder.get());
+    }
+
+    @Test
+    public void testBudgetIsEnforced() throws Exception {
+        server.respondSlowly("/slow", 30000, "1.2.3.4");
+        MajorityVoteIpFinder finder = new MajorityVoteIpFinder(client, 1, 2, 1000, Arrays.asList(
+                provider("/slow"), provider("/slow")));
+        long start = System.currentTimeMillis();
+        PublicIp ip = finder.get();
+        long took = System.currentTimeMillis() - start;
+        Assert.assertNull(ip);
+        Assert.assertTrue("took " + took, took < 5000);
+    }
+
+    @Test
+    public void testFlakyProviderIsDemoted() throws Exception {
+        AtomicInteger brokenHits = new AtomicInteger();
+        server.handle("/broken", exchange -> {
+            brokenHits.incrementAndGet();
+            LocalHttpServer.send(exchange, 500, "");
+        });
+        server.respond("/a", 200, "1.2.3.4");
+        server.respond("/b", 200, "1.2.3.4");
+        MajorityVoteIpFinder finder = new MajorityVoteIpFinder(client, 2, 2, 20000, Arrays.asList(
+                provider("/broken"), provider("/a"), provider("/b")));
+        for (int i = 0; i < MajorityVoteIpFinder.REPROBE_INTERVAL - 1; i++) {
+            Assert.assertEquals(new PublicIp(v4("1.2.3.4")), finder.get());
+        }
+        Assert.assertEquals(1, brokenHits.get());
+        //this cycle re-probes the least recently queried provider
+        Assert.assertEquals(new PublicIp(v4("1.2.3.4")), finder.get());
+        Assert.assertEquals(2, brokenHits.get());
+    }
+
+    @Test
+    public void testDisagreeingProviderIsOutvotedAndDemoted() throws Exception {
+        AtomicInteger liarHits = new AtomicInteger();
+        server.handle("/liar", exchange -> {
+            liarHits.incrementAndGet();
+            LocalHttpServer.send(exchange, 200, "9.9.9.9");
+        });
+        server.respond("/a", 200, "1.2.3.4");
+        server.respond("/b", 200, "1.2.3.4");
+        MajorityVoteIpFinder finder = new MajorityVoteIpFinder(client, 2, 2, 20000, Arrays.asList(
+                provider("/liar"), provider("/a"), provider("/b")));
+        Assert.assertEquals(new PublicIp(v4("1.2.3.4")), finder.get());
+        Assert.assertEquals(new PublicIp(v4("1.2.3.4")), finder.get());
+        Assert.assertEquals(1, liarHits.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQuorumLargerThanProviders() throws Exception {
+        new MajorityVoteIpFinder(client, 3, provider("/a"), provider("/b"));
+    }
+
+    private PublicIpServiceProvider provider(String path) {
+        return provider(path, PublicIpServiceProvider.DEFAULT_TIMEOUT_MS);
+    }
+
+    private PublicIpServiceProvider provider(String path, int timeoutMs) {
+        Request request = new RequestBuilder().setUrl(server.url(path)).build();
+        return new PublicIpServiceProvider() {
+            @Override
+            public Request buildRequest() {
+                return request;
+            }
+
+            @Override
+            public PublicIp parse(Response response) throws Exception {
+                if (response.getStatusCode() != 200) {
+                    throw new IllegalStateException("got " + response.getStatusCode());
+                }
+                return new PublicIp(v4(response.getResponseBody().trim()));
+            }
+
+            @Override
+            public int getTimeoutMs() {
+                return timeoutMs;
+            }
+        };
+    }
+
+    private static Inet4Address v4(String literal) throws Exception {
+        return (Inet4Address) InetAddress.getByName(literal);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.publicip;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TieredIpFinderTest {
+    private final AtomicReference<PublicIp> cheapAnswer = new AtomicReference<>();
+    private final AtomicReference<PublicIp> expensiveAnswer = new AtomicReference<>();
+    private final AtomicInteger expensiveCalls = new AtomicInteger();
+    private final TieredIpFinder finder = new TieredIpFinder(
+            cheapAnswer::get,
+            () -> {
+                expensiveCalls.incrementAndGet();
+                return expensiveAnswer.get();
+            },
+            3
+    );
+
+    @Test
+    public void testEscalatesOnlyOnChange() throws Exception {
+        PublicIp a = ip("1.2.3.4");
+        PublicIp b = ip("5.6.7.8");
+        cheapAnswer.set(a);
+        expensiveAnswer.set(a);
+        Assert.assertEquals(a, finder.get());
+        Assert.assertEquals(a, finder.get());
+        Assert.assertEquals(a, finder.get());
+        Assert.assertEquals(1, expensiveCalls.get());
+        cheapAnswer.set(b);
+        expensiveAnswer.set(b);
+        Assert.assertEquals(b, finder.get());
+        Assert.assertEquals(2, expensiveCalls.get());
+    }
+
+    @Test
+    public void testEscalatesWhenCheapUnavailable() throws Exception {
+        PublicIp a = ip("1.2.3.4");
+        expensiveAnswer.set(a);
+        Assert.assertEquals(a, finder.get());
+        Assert.assertEquals(a, finder.get());
+        Assert.assertEquals(2, expensiveCalls.get());
+    }
+
+    @Test
+    public void testReconfirmsPeriodically() throws Exception {
+        PublicIp a = ip("1.2.3.4");
+        cheapAnswer.set(a);
+        expensiveAnswer.set(a);
+        for (int i = 0; i < 8; i++) {
+            Assert.assertEquals(a, finder.get());
+        }
+        //escalated on 1st and 5th calls
+        Assert.assertEquals(2, expensiveCalls.get());
+    }
+
+    @Test
+    public void testCheapAndExpensiveMayDiffer() throws Exception {
+        //the cheap finder only serves as a change indicator
+        cheapAnswer.set(ip("10.0.0.1"));
+        expensiveAnswer.set(ip("1.2.3.4"));
+        Assert.assertEquals(ip("1.2.3.4"), finder.get());
+        Assert.assertEquals(ip("1.2.3.4"), finder.get());
+        Assert.assertEquals(1, expensiveCalls.get());
+    }
+
+    private static PublicIp ip(String v4) throws Exception {
+        return new PublicIp((Inet4Address) InetAddress.getByName(v4));
+    }
+}
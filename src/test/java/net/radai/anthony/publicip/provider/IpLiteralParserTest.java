@@ -0,0 +1,165 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.publicip.provider;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class IpLiteralParserTest {
+
+    @Test
+    public void testValidV4() throws Exception {
+        String[] literals = {"1.2.3.4", "0.0.0.0", "255.255.255.255", "10.0.0.1", " 192.168.1.1\n", "\t8.8.8.8\r\n"};
+        for (String literal : literals) {
+            Assert.assertEquals(literal, InetAddress.getByName(literal.trim()), IpLiteralParser.parseV4(bytes(literal)));
+        }
+    }
+
+    @Test
+    public void testInvalidV4() throws Exception {
+        String[] literals = {
+                "", " ", "1.2.3", "1.2.3.4.5", "256.1.1.1", "1.2.3.4.", ".1.2.3.4", "1..3.4", "1.2.3.4x",
+                "0001.2.3.4", "1.2.3.-4", "1 .2.3.4", "localhost", "example.com", "::1", "<html>1.2.3.4</html>"
+        };
+        for (String literal : literals) {
+            try {
+                IpLiteralParser.parseV4(bytes(literal));
+                Assert.fail("should have rejected \"" + literal + "\"");
+            } catch (IllegalArgumentException expected) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void testRespectsBufferBounds() throws Exception {
+        ByteBuffer buffer = bytes("xx1.2.3.4yy");
+        buffer.position(2).limit(9);
+        Assert.assertEquals(InetAddress.getByName("1.2.3.4"), IpLiteralParser.parseV4(buffer));
+        Assert.assertEquals(2, buffer.position());
+        Assert.assertEquals(9, buffer.limit());
+    }
+
+    @Test
+    public void testBetweenMarkers() throws Exception {
+        byte[] open = ascii("<b>");
+        byte[] close = ascii("</b>");
+        Assert.assertEquals(InetAddress.getByName("1.2.3.4"),
+                IpLiteralParser.parseV4Between(bytes("<html><b> 1.2.3.4 </b></html>"), open, close));
+        //first occurrence not followed by the closing marker is skipped, like the regexp would
+        Assert.assertEquals(InetAddress.getByName("5.6.7.8"),
+                IpLiteralParser.parseV4Between(bytes("<b>your ip is <i>x</i></b><b>5.6.7.8</b>"), open, close));
+        String[] invalid = {"<b>1.2.3.4", "1.2.3.4</b>", "<b>nope</b>", "<b></b>", "<b>1.2.3.4<br></b>"};
+        for (String body : invalid) {
+            try {
+                IpLiteralParser.parseV4Between(bytes(body), open, close);
+                Assert.fail("should have rejected \"" + body + "\"");
+            } catch (IllegalArgumentException expected) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void testValidV6() throws Exception {
+        String[] literals = {
+                "::", "::1", "1::", "2001:db8::1", "2001:DB8:0:0:8:800:200C:417A", "fe80::1:2:3:4",
+                "1:2:3:4:5:6:7:8", "1:2:3:4:5:6::8", "1::8", "::ffff:1.2.3.4", "64:ff9b::192.0.2.33",
+                "1:2:3:4:5:6:1.2.3.4", " ::1 "
+        };
+        long[] out = new long[2];
+        for (String literal : literals) {
+            ByteBuffer buffer = bytes(literal);
+            Assert.assertTrue(literal, IpLiteralParser.scanV6(buffer, 0, buffer.limit(), out));
+            Assert.assertEquals(literal, expectedV6(literal.trim()), IpLiteralParser.toInet6(out[0], out[1]));
+        }
+    }
+
+    @Test
+    public void testInvalidV6() throws Exception {
+        String[] literals = {
+                "", ":", ":::", "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9", "1::2::3", "12345::", "1:", ":1",
+                "1:2:3:4:5:6:7::8", "::g", "::1.2.3", "1.2.3.4::", "::1.2.3.4:5", "fe80::1%eth0", "localhost",
+                "1:2:3:4:5:6:7:1.2.3.4"
+        };
+        long[] out = {42, 42};
+        for (String literal : literals) {
+            ByteBuffer buffer = bytes(literal);
+            Assert.assertFalse(literal, IpLiteralParser.scanV6(buffer, 0, buffer.limit(), out));
+            Assert.assertEquals(42, out[0]);
+            Assert.assertEquals(42, out[1]);
+        }
+    }
+
+    @Test
+    public void testScanningDoesNotAllocate() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+        ByteBuffer v4 = bytes("  123.45.67.89\n");
+        ByteBuffer v6 = bytes("2001:db8::ffff:1.2.3.4");
+        ByteBuffer html = bytes("<html><body><b>123.45.67.89</b></body></html>");
+        byte[] open = ascii("<b>");
+        long[] out = new long[2];
+        long sum = 0;
+        for (int i = 0; i < 20000; i++) { //warm up
+            sum += IpLiteralParser.scanV4(v4, 0, v4.limit());
+            sum += IpLiteralParser.scanV6(v6, 0, v6.limit(), out) ? 1 : 0;
+            sum += IpLiteralParser.indexOf(html, open, 0, html.limit());
+        }
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            sum += IpLiteralParser.scanV4(v4, 0, v4.limit());
+            sum += IpLiteralParser.scanV6(v6, 0, v6.limit(), out) ? 1 : 0;
+            sum += IpLiteralParser.indexOf(html, open, 0, html.limit());
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        Assert.assertTrue(sum > 0);
+        //a single allocation per iteration would amount to megabytes
+        Assert.assertTrue("allocated " + allocated + " bytes", allocated < 100000);
+    }
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(ascii(s));
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static Inet6Address expectedV6(String literal) throws Exception {
+        byte[] address = InetAddress.getByName(literal).getAddress();
+        if (address.length == 4) {
+            //the jdk turns v4-mapped literals into v4 addresses
+            byte[] mapped = new byte[16];
+            mapped[10] = (byte) 0xFF;
+            mapped[11] = (byte) 0xFF;
+            System.arraycopy(address, 0, mapped, 12, 4);
+            address = mapped;
+        }
+        return Inet6Address.getByAddress(null, address, -1);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *     Copyright (C) 2018 Radai Rosenblatt (radai.rosenblatt@gmail.com)
+ *     
+ *     This file is part of Anthony.
+ *
+ *     Anthony is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ */
+
+package net.radai.anthony.tracing;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TracingTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testNothingRecordedByDefault() throws Exception {
+        Assert.assertTrue(Tracing.isSupported());
+        Assert.assertSame(Span.NOP, Tracing.request("godaddy", "GET", "https://what.ever", "what.ever"));
+        Assert.assertSame(Span.NOP, Tracing.phase(1, "detect"));
+    }
+
+    @Test
+    public void testRequestRecorded() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("requests.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("net.radai.anthony.OutboundRequest");
+            recording.start();
+            Span span = Tracing.request("godaddy", "PUT", "https://api.godaddy.com/v1/domains/what.ever/records/A/@", "what.ever");
+            Assert.assertTrue(span.isRecording());
+            span.finish(200, 42, 7);
+            Tracing.request("mailgun", "POST", "https://api.mailgun.net/v3/messages", null).fail(new IOException("nope"));
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = read(file, "net.radai.anthony.OutboundRequest");
+        Assert.assertEquals(2, events.size());
+        RecordedEvent update = events.get(0);
+        Assert.assertEquals("godaddy", update.getString("service"));
+        Assert.assertEquals("PUT", update.getString("method"));
+        Assert.assertEquals("what.ever", update.getString("domain"));
+        Assert.assertEquals(200, update.getInt("status"));
+        Assert.assertEquals(42, update.getLong("sentBytes"));
+        Assert.assertEquals(7, update.getLong("receivedBytes"));
+        Assert.assertNull(update.getString("error"));
+        RecordedEvent failed = events.get(1);
+        Assert.assertEquals("mailgun", failed.getString("service"));
+        Assert.assertNull(failed.getString("domain"));
+        Assert.assertEquals(-1, failed.getInt("status"));
+        Assert.assertTrue(failed.getString("error"), failed.getString("error").contains("nope"));
+    }
+
+    @Test
+    public void testPhaseRecorded() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("phases.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("net.radai.anthony.CyclePhase");
+            recording.start();
+            Tracing.phase(3, "detect").finish();
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = read(file, "net.radai.anthony.CyclePhase");
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(3, events.get(0).getLong("cycle"));
+        Assert.assertEquals("detect", events.get(0).getString("phase"));
+    }
+
+    private static List<RecordedEvent> read(Path file, String eventName) throws IOException {
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(event -> eventName.equals(event.getEventType().getName()))
+                .sorted((a, b) -> a.getStartTime().compareTo(b.getStartTime()))
+                .collect(Collectors.toList());
+    }
+}